@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aerogear.unifiedpush.DefaultPushSender;
+import org.jboss.aerogear.unifiedpush.PushSender;
+import org.jboss.aerogear.unifiedpush.message.MessageResponseCallback;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+import org.jboss.aerogear.unifiedpush.transport.PayloadWriter;
+import org.jboss.aerogear.unifiedpush.transport.Transport;
+import org.jboss.aerogear.unifiedpush.transport.TransportResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The serialization of a batch by {@link PushSender#send(List, MessageResponseCallback)}, measured without any I/O
+ * through a {@link Transport} discarding the payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int batchSize;
+
+    @Param({"1", "100"})
+    private int aliases;
+
+    private List<UnifiedMessage> batch;
+    private PushSender pushSender;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        batch = Messages.batch(batchSize, aliases);
+        pushSender = DefaultPushSender.withRootServerURL("http://localhost/ag-push")
+                .pushApplicationId(Messages.PUSH_APPLICATION_ID)
+                .masterSecret(Messages.MASTER_SECRET)
+                .transport(new DiscardingTransport(blackhole))
+                .build();
+    }
+
+    @Benchmark
+    public void send() {
+        pushSender.send(batch, null);
+    }
+
+    /**
+     * Writes the payloads to a {@link Blackhole}, so that their serialization isn't optimized away.
+     */
+    private static final class DiscardingTransport implements Transport {
+
+        private static final TransportResponse ACCEPTED = new TransportResponse(202);
+
+        private final OutputStream out;
+
+        private DiscardingTransport(final Blackhole blackhole) {
+            out = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    blackhole.consume(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    blackhole.consume(b);
+                }
+            };
+        }
+
+        @Override
+        public TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception {
+            out.write(payload, 0, payload.length);
+            return ACCEPTED;
+        }
+
+        @Override
+        public TransportResponse postStreaming(String url, String encodedCredentials, PayloadWriter payload) throws Exception {
+            payload.writeTo(out);
+            return ACCEPTED;
+        }
+
+        @Override
+        public void close() {
+            // no-op
+        }
+    }
+}
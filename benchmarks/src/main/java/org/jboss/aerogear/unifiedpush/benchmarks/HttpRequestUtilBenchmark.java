@@ -0,0 +1,141 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The setup of a request by {@link HttpRequestUtil#post(String, String, byte[],
+ * org.jboss.aerogear.unifiedpush.model.ProxyConfig, org.jboss.aerogear.unifiedpush.model.TrustStoreConfig,
+ * HttpRequestUtil.ConnectionSettings)}: opening the connection, setting the headers and writing the payload. The
+ * {@code bench} protocol registered by this benchmark hands out connections which never touch the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpRequestUtilBenchmark {
+
+    private static final String SENDER_URL = "bench://localhost/ag-push/rest/sender/";
+    private static final String ENCODED_CREDENTIALS = "YzdmYzY1MjU6OGIyZjQzYTk=";
+
+    static {
+        // the factory can only be set once per JVM, every benchmark runs in a fork of its own
+        URL.setURLStreamHandlerFactory(protocol -> "bench".equals(protocol) ? new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new DiscardingConnection(url);
+            }
+        } : null);
+    }
+
+    @Param({"0", "4096"})
+    private int compressionThreshold;
+
+    private byte[] payload;
+    private HttpRequestUtil.ConnectionSettings connectionSettings;
+
+    @Setup
+    public void setup() {
+        payload = Messages.message(100).getObject().toJsonString().getBytes(StandardCharsets.UTF_8);
+        connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setConnectTimeout(5000);
+        connectionSettings.setReadTimeout(5000);
+        if (compressionThreshold > 0) {
+            connectionSettings.setCompressionThreshold(compressionThreshold);
+        }
+    }
+
+    @Benchmark
+    public int post() throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) HttpRequestUtil.post(SENDER_URL, ENCODED_CREDENTIALS, payload,
+                null, null, connectionSettings);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Accepts every request without sending it anywhere.
+     */
+    private static final class DiscardingConnection extends HttpURLConnection {
+
+        private DiscardingConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            connect();
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // discarded
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    // discarded
+                }
+            };
+        }
+
+        @Override
+        public int getResponseCode() {
+            return HTTP_ACCEPTED;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+
+/**
+ * Builds the messages sent by the benchmarks.
+ */
+final class Messages {
+
+    static final String PUSH_APPLICATION_ID = "c7fc6525-5506-4ca9-9cf1-55cc261ddb9c";
+    static final String MASTER_SECRET = "8b2f43a9-23c8-44fe-bee9-d6b0af9e316b";
+
+    private Messages() {
+        // no-op
+    }
+
+    /**
+     * @param aliases The number of aliases the message is sent to.
+     * @return a typical message, with user data and a criteria
+     */
+    static UnifiedMessage message(int aliases) {
+        return UnifiedMessage.withMessage()
+                .alert("Hello from the benchmarks!")
+                .sound("default")
+                .badge("1")
+                .userData("key", "value")
+                .userData("orderId", "4dc36f1c-b6a9-4b4c-8c1c-8f1f0b7e3a42")
+                .criteria()
+                .variants("c3f0a94f-48de-4b77-a08e-68114460857e")
+                .aliases(aliases(aliases))
+                .categories("sport", "world cup")
+                .config()
+                .timeToLive(3600)
+                .build();
+    }
+
+    /**
+     * @param size The number of messages.
+     * @param aliases The number of aliases every message is sent to.
+     * @return a batch of messages
+     */
+    static List<UnifiedMessage> batch(int size, int aliases) {
+        final List<UnifiedMessage> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(message(aliases));
+        }
+        return batch;
+    }
+
+    private static List<String> aliases(int count) {
+        final List<String> aliases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            aliases.add("user-" + i + "@example.com");
+        }
+        return aliases;
+    }
+}
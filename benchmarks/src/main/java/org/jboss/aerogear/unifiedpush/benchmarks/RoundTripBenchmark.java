@@ -0,0 +1,91 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aerogear.unifiedpush.DefaultPushSender;
+import org.jboss.aerogear.unifiedpush.PushSender;
+import org.jboss.aerogear.unifiedpush.StubPushServer;
+import org.jboss.aerogear.unifiedpush.message.MessageResponseCallback;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+import org.jboss.aerogear.unifiedpush.transport.ConnectionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full round trips of {@link PushSender#send(UnifiedMessage)} and {@link PushSender#send(List, MessageResponseCallback)}
+ * against an in-process {@link StubPushServer}, which accepts every message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    @Param({"SINGLE_SHOT", "POOLED"})
+    private ConnectionMode connectionMode;
+
+    private StubPushServer server;
+    private DefaultPushSender pushSender;
+    private UnifiedMessage message;
+    private List<UnifiedMessage> batch;
+
+    @Setup
+    public void setup() throws Exception {
+        server = StubPushServer.start();
+        pushSender = DefaultPushSender.withRootServerURL(server.getRootServerURL())
+                .pushApplicationId(StubPushServer.PUSH_APPLICATION_ID)
+                .masterSecret(StubPushServer.MASTER_SECRET)
+                .connectionMode(connectionMode)
+                .build();
+        message = Messages.message(10);
+        batch = Messages.batch(100, 10);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pushSender.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void send() {
+        pushSender.send(message);
+    }
+
+    @Benchmark
+    public void sendBatch() {
+        pushSender.send(batch, null);
+    }
+}
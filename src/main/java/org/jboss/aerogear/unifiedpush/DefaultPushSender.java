@@ -16,47 +16,176 @@
  */
 package org.jboss.aerogear.unifiedpush;
 
-import net.iharder.Base64;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderCircuitOpenException;
 import org.jboss.aerogear.unifiedpush.exception.PushSenderException;
 import org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderRateLimitException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderShardException;
 import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+import org.jboss.aerogear.unifiedpush.message.FrozenMessage;
 import org.jboss.aerogear.unifiedpush.message.MessageResponseCallback;
 import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
 import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
 import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.transport.ConnectionMode;
+import org.jboss.aerogear.unifiedpush.transport.HttpClientTransport;
+import org.jboss.aerogear.unifiedpush.transport.PayloadWriter;
+import org.jboss.aerogear.unifiedpush.transport.PooledTransport;
+import org.jboss.aerogear.unifiedpush.transport.Transport;
+import org.jboss.aerogear.unifiedpush.transport.TransportResponse;
+import org.jboss.aerogear.unifiedpush.transport.UrlConnectionTransport;
+import org.jboss.aerogear.unifiedpush.utils.AdaptiveConcurrencyLimit;
+import org.jboss.aerogear.unifiedpush.utils.BatchingQueue;
+import org.jboss.aerogear.unifiedpush.utils.BoundedExecutor;
+import org.jboss.aerogear.unifiedpush.utils.CircuitBreaker;
+import org.jboss.aerogear.unifiedpush.utils.LoadBalancer;
 import org.jboss.aerogear.unifiedpush.utils.PushConfiguration;
+import org.jboss.aerogear.unifiedpush.utils.RateLimitPolicy;
+import org.jboss.aerogear.unifiedpush.utils.RateLimiter;
+import org.jboss.aerogear.unifiedpush.utils.RedirectCache;
+import org.jboss.aerogear.unifiedpush.utils.RetryPolicy;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
 import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import static org.jboss.aerogear.unifiedpush.utils.ValidationUtils.isEmpty;
 
 
-public class DefaultPushSender implements PushSender {
+public class DefaultPushSender implements PushSender, Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 10;
+    public static final long DEFAULT_BATCH_LINGER_TIME = 10;
+    public static final long DEFAULT_REDIRECT_CACHE_TTL = 3600000;
 
     private static final Logger logger = Logger.getLogger(DefaultPushSender.class.getName());
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+    private static final String SENDER_PATH = "rest/sender/";
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    private static final String BATCH_PATH = "batch/";
+
     private final PushConfiguration pushConfiguration;
+    private volatile Credentials credentials;
     private final ProxyConfig proxy;
     private final TrustStoreConfig customTrustStore;
-
+    private final HttpRequestUtil.ConnectionSettings connectionSettings;
+    private final Transport transport;
+    private final ExecutorService ownedExecutor;
+    private final BoundedExecutor asyncExecutor;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final BatchingQueue<byte[], PushResult> batchingQueue;
+    private final int criteriaShardSize;
+    private final RateLimiter rateLimiter;
+    private final RateLimitPolicy rateLimitPolicy;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final LoadBalancer loadBalancer;
+    private final RedirectCache redirectCache;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> evictionTask;
 
     /**
      * Only called by builder.
      */
     private DefaultPushSender(Builder builder) {
         pushConfiguration = builder.pushConfiguration;
+        credentials = new Credentials(pushConfiguration.getPushApplicationId(), pushConfiguration.getMasterSecret());
         proxy = builder.proxy;
         customTrustStore = builder.customTrustStore;
+        // a copy of its own, which keeps the URLs and the proxy of this sender only
+        connectionSettings = new HttpRequestUtil.ConnectionSettings(pushConfiguration.getConnectionSettings());
+        transport = builder.transport != null ? builder.transport : createTransport();
+        ownedExecutor = builder.executor == null ? createExecutor() : null;
+        concurrencyLimit = builder.adaptiveConcurrency ? new AdaptiveConcurrencyLimit(1, builder.maxInFlightRequests) : null;
+        criteriaShardSize = builder.criteriaShardSize;
+        rateLimiter = builder.rateLimiter != null ? builder.rateLimiter : builder.messagesPerSecond > 0 || builder.bytesPerSecond > 0
+                ? RateLimiter.forPushApplication(pushConfiguration.getPushApplicationId(), builder.messagesPerSecond, builder.bytesPerSecond)
+                : null;
+        redirectCache = builder.redirectCacheTtl > 0 ? new RedirectCache(builder.redirectCacheTtl) : null;
+        rateLimitPolicy = builder.rateLimitPolicy;
+        retryPolicy = builder.retryPolicy;
+        circuitBreaker = builder.circuitBreaker;
+        loadBalancer = pushConfiguration.getServerUrls().size() > 1
+                ? new LoadBalancer(pushConfiguration.getServerUrls(), builder.loadBalancingStrategy, builder.ejectionThreshold, builder.ejectionTime)
+                : null;
+        // delays rate limited sends, retries, lingering batches and the end of Retry-After pauses, the delayed
+        // requests themselves run on the executor, and evicts expired pooled connections
+        scheduler = retryPolicy != null || rateLimiter != null && rateLimitPolicy != RateLimitPolicy.FAIL_FAST || builder.maxBatchSize > 1
+                || concurrencyLimit != null || transport instanceof PooledTransport
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "aerogear-push-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        // otherwise the connections of a sender going quiet would stay open until it sends again
+        evictionTask = transport instanceof PooledTransport ? scheduleEviction((PooledTransport) transport) : null;
+        asyncExecutor = new BoundedExecutor(builder.executor != null ? builder.executor : ownedExecutor,
+                builder.maxInFlightRequests, scheduler);
+        batchingQueue = builder.maxBatchSize > 1
+                ? new BatchingQueue<>(builder.maxBatchSize, builder.batchLingerTime,
+                        payloads -> submitPayloadAsync(BATCH_PATH, toBatchPayload(payloads)), scheduler)
+                : null;
+    }
+
+    private ScheduledFuture<?> scheduleEviction(PooledTransport pooledTransport) {
+        final long interval = pooledTransport.getEvictionInterval();
+        return scheduler.scheduleAtFixedRate(pooledTransport::closeExpiredConnections, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static ExecutorService createExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "aerogear-push-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Transport createTransport() {
+        if (connectionSettings.getConnectionMode() == ConnectionMode.POOLED) {
+            return new PooledTransport(proxy, customTrustStore, connectionSettings);
+        }
+        if (connectionSettings.getConnectionMode() == ConnectionMode.NON_BLOCKING
+                || connectionSettings.getConnectionMode() == ConnectionMode.HTTP2) {
+            return new HttpClientTransport(proxy, customTrustStore, connectionSettings);
+        }
+        return new UrlConnectionTransport(proxy, customTrustStore, connectionSettings);
     }
 
     /**
@@ -69,6 +198,29 @@ public class DefaultPushSender implements PushSender {
         return new Builder(rootServerURL);
     }
 
+    /**
+     * Starts a {@link Builder} by providing the URLs of all the nodes of a multi-node UnifiedPush Server deployment.
+     * The requests are balanced across the nodes, see {@link Builder#loadBalancingStrategy(LoadBalancer.Strategy)}.
+     *
+     * @param rootServerURLs of the UnifiedPush Server nodes
+     * @return a {@link Builder} instance
+     */
+    public static Builder withRootServerURLs(String... rootServerURLs) {
+        if (rootServerURLs == null || rootServerURLs.length == 0) {
+            throw new IllegalStateException("server can not be null");
+        }
+        final Builder builder = new Builder(rootServerURLs[0]);
+        final List<String> serverUrls = new ArrayList<>(rootServerURLs.length);
+        for (String rootServerURL : rootServerURLs) {
+            if (isEmpty(rootServerURL)) {
+                throw new IllegalStateException("server can not be null");
+            }
+            serverUrls.add(!rootServerURL.endsWith("/") ? rootServerURL + '/' : rootServerURL);
+        }
+        builder.pushConfiguration.setServerUrls(serverUrls);
+        return builder;
+    }
+
     /**
      * Starts a {@link Builder} using an external config file
      *
@@ -93,6 +245,23 @@ public class DefaultPushSender implements PushSender {
         private PushConfiguration pushConfiguration;
         private ProxyConfig proxy;
         private TrustStoreConfig customTrustStore;
+        private Executor executor;
+        private Transport transport;
+        private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+        private boolean adaptiveConcurrency;
+        private int maxBatchSize = 1;
+        private long batchLingerTime = DEFAULT_BATCH_LINGER_TIME;
+        private int criteriaShardSize;
+        private double messagesPerSecond;
+        private double bytesPerSecond;
+        private RateLimiter rateLimiter;
+        private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.BLOCK;
+        private RetryPolicy retryPolicy;
+        private CircuitBreaker circuitBreaker;
+        private LoadBalancer.Strategy loadBalancingStrategy = LoadBalancer.Strategy.ROUND_ROBIN;
+        private int ejectionThreshold = LoadBalancer.DEFAULT_EJECTION_THRESHOLD;
+        private long ejectionTime = LoadBalancer.DEFAULT_EJECTION_TIME;
+        private long redirectCacheTtl = DEFAULT_REDIRECT_CACHE_TTL;
 
 
         private Builder(String rootServerURL) {
@@ -148,6 +317,62 @@ public class DefaultPushSender implements PushSender {
             return this;
         }
 
+        /**
+         * @param connectionMode How connections to the Push Server are handled, defaults to {@link ConnectionMode#SINGLE_SHOT}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder connectionMode(ConnectionMode connectionMode) {
+            pushConfiguration.getConnectionSettings().setConnectionMode(connectionMode);
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerRoute Maximum number of connections per route when using {@link ConnectionMode#POOLED}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder maxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+            pushConfiguration.getConnectionSettings().setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+            return this;
+        }
+
+        /**
+         * @param idleConnectionTimeout Time in ms after which an idle connection is evicted when using {@link ConnectionMode#POOLED}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder idleConnectionTimeout(Integer idleConnectionTimeout) {
+            pushConfiguration.getConnectionSettings().setIdleConnectionTimeout(idleConnectionTimeout);
+            return this;
+        }
+
+        /**
+         * @param connectionTimeToLive Maximum lifetime in ms of a connection when using {@link ConnectionMode#POOLED}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder connectionTimeToLive(Integer connectionTimeToLive) {
+            pushConfiguration.getConnectionSettings().setConnectionTimeToLive(connectionTimeToLive);
+            return this;
+        }
+
+        /**
+         * @param dnsCacheTtl Time in ms the resolved address of the proxy host is reused before it is resolved again,
+         *                    defaults to {@link HttpRequestUtil#DEFAULT_DNS_CACHE_TTL}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder dnsCacheTtl(Integer dnsCacheTtl) {
+            pushConfiguration.getConnectionSettings().setDnsCacheTtl(dnsCacheTtl);
+            return this;
+        }
+
+        /**
+         * @param compressionThreshold Minimum size in bytes of a payload to be sent gzip compressed, streamed batches
+         *                             are always compressed. Compression is disabled by default.
+         * @return the current {@link Builder} instance
+         */
+        public Builder compressionThreshold(Integer compressionThreshold) {
+            pushConfiguration.getConnectionSettings().setCompressionThreshold(compressionThreshold);
+            return this;
+        }
+
         /**
          * Set a custom trustStore.
          *
@@ -219,12 +444,217 @@ public class DefaultPushSender implements PushSender {
             return this;
         }
 
+        /**
+         * Plug in the {@link Transport} delivering the payloads, overriding the one chosen by the {@link ConnectionMode}.
+         * The proxy, trustStore and connection settings of this builder are not applied to it.
+         *
+         * @param transport The transport.
+         * @return the current {@link Builder} instance
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} running the requests issued by the {@code sendAsync} methods.
+         * If not set, the sender uses its own pool of daemon threads.
+         *
+         * @param executor The executor.
+         * @return the current {@link Builder} instance
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Limits how many requests issued by the {@code sendAsync} methods are in flight at the same time,
+         * further requests are queued without blocking the caller. Defaults to {@link #DEFAULT_MAX_IN_FLIGHT_REQUESTS}.
+         *
+         * @param maxInFlightRequests Maximum number of concurrent asynchronous requests.
+         * @return the current {@link Builder} instance
+         */
+        public Builder maxInFlightRequests(int maxInFlightRequests) {
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * Adapts the number of requests in flight to the load of the Push Server: it is cut by half whenever the
+         * server sheds load with a 429 or 503 response or a request times out, and grows back by about one per round
+         * trip while the server keeps up, up to {@link #maxInFlightRequests(int)}. No request is started until the
+         * {@code Retry-After} delay of such a response has passed. Blocking sends are subject to the same limit, they
+         * run on the executor while the calling thread waits. Disabled by default.
+         *
+         * @param adaptiveConcurrency true to enable the adaptive concurrency limit.
+         * @return the current {@link Builder} instance
+         */
+        public Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        /**
+         * Enables micro-batching: single messages are queued and sent together as one request to the batch endpoint
+         * of the Push Server once {@code maxBatchSize} messages are queued or the linger time expired. The future or
+         * callback of every message is completed once its batch was accepted. Disabled by default.
+         *
+         * @param maxBatchSize Maximum number of messages per batch, {@code 1} disables batching.
+         * @return the current {@link Builder} instance
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param batchLingerTime Maximum time in ms a message waits for its batch to fill up when using
+         *                        {@link #maxBatchSize(int)}. Defaults to {@link #DEFAULT_BATCH_LINGER_TIME}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder batchLingerTime(long batchLingerTime) {
+            this.batchLingerTime = batchLingerTime;
+            return this;
+        }
+
+        /**
+         * Splits messages whose aliases or variants criteria exceed the given size into shards, which are sent
+         * concurrently as separate requests, or batch entries when batching is enabled. The outcomes of the shards
+         * are aggregated into a {@link ShardedPushResult}, or a {@link PushSenderShardException} listing the shards
+         * which failed. Disabled by default.
+         *
+         * @param criteriaShardSize Maximum number of aliases and variants per request, {@code 0} disables sharding.
+         * @return the current {@link Builder} instance
+         */
+        public Builder criteriaShardSize(int criteriaShardSize) {
+            this.criteriaShardSize = criteriaShardSize;
+            return this;
+        }
+
+        /**
+         * Limits the rate of the messages sent to the Push Server. The limit is shared by all senders of the same
+         * PushApplication within the JVM, so running several senders doesn't multiply it. These senders have to use
+         * the same rates, building a sender with other rates fails. Disabled by default.
+         *
+         * @param messagesPerSecond Maximum number of messages per second, {@code 0} for no limit.
+         * @param bytesPerSecond Maximum number of payload bytes per second, {@code 0} for no limit.
+         * @return the current {@link Builder} instance
+         */
+        public Builder rateLimit(double messagesPerSecond, double bytesPerSecond) {
+            this.messagesPerSecond = messagesPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Limits the rate of the messages sent to the Push Server with the given {@link RateLimiter}, which can be
+         * shared by any set of senders. Takes precedence over {@link #rateLimit(double, double)}.
+         *
+         * @param rateLimiter The rate limiter.
+         * @return the current {@link Builder} instance
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param rateLimitPolicy What to do with messages exceeding the rate limit. Defaults to
+         *                        {@link RateLimitPolicy#BLOCK}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder rateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+            this.rateLimitPolicy = rateLimitPolicy;
+            return this;
+        }
+
+        /**
+         * Retries the requests failing with transient errors according to the given {@link RetryPolicy}. The retries
+         * are scheduled without holding a thread or a slot of {@link #maxInFlightRequests(int)} while waiting, and
+         * resend the already encoded payload. Disabled by default.
+         *
+         * @param retryPolicy The retry policy, {@code null} disables retries.
+         * @return the current {@link Builder} instance
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Guards the requests with the given {@link CircuitBreaker}: once too many of them failed because of the Push
+         * Server, further sends fail fast with a {@link PushSenderCircuitOpenException} instead of waiting for the
+         * connection timeouts, until trial requests succeed again. A breaker can be shared by several senders.
+         * Disabled by default.
+         *
+         * @param circuitBreaker The circuit breaker, {@code null} disables it.
+         * @return the current {@link Builder} instance
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Selects how requests are balanced when several server URLs are configured. Requests failing to connect to a
+         * node are sent to the next one. {@link LoadBalancer.Strategy#LATENCY_AWARE} steers the requests away from slow
+         * nodes. Defaults to {@link LoadBalancer.Strategy#ROUND_ROBIN}.
+         *
+         * @param loadBalancingStrategy The load balancing strategy.
+         * @return the current {@link Builder} instance
+         */
+        public Builder loadBalancingStrategy(LoadBalancer.Strategy loadBalancingStrategy) {
+            this.loadBalancingStrategy = loadBalancingStrategy;
+            return this;
+        }
+
+        /**
+         * @param ejectionThreshold The number of consecutive failures after which a node is ejected from load
+         *                          balancing. Defaults to {@link LoadBalancer#DEFAULT_EJECTION_THRESHOLD}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder ejectionThreshold(int ejectionThreshold) {
+            this.ejectionThreshold = ejectionThreshold;
+            return this;
+        }
+
+        /**
+         * @param ejectionTime Time in ms an ejected node doesn't receive requests. Defaults to
+         *                     {@link LoadBalancer#DEFAULT_EJECTION_TIME}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder ejectionTime(long ejectionTime) {
+            this.ejectionTime = ejectionTime;
+            return this;
+        }
+
+        /**
+         * Remembers the targets of permanent redirects (301 and 308 responses) for the given time, so later requests
+         * are sent to the target directly instead of being uploaded twice. A target which fails is forgotten right
+         * away. Defaults to {@link #DEFAULT_REDIRECT_CACHE_TTL}.
+         *
+         * @param redirectCacheTtl Time in ms a redirect target is remembered, {@code 0} disables the cache.
+         * @return the current {@link Builder} instance
+         */
+        public Builder redirectCacheTtl(long redirectCacheTtl) {
+            this.redirectCacheTtl = redirectCacheTtl;
+            return this;
+        }
+
         /**
          * Build the {@link DefaultPushSender}.
          *
          * @return the built up {@link DefaultPushSender}
+         * @throws IllegalStateException when the {@link ConnectionMode} isn't supported by the running JVM.
          */
         public DefaultPushSender build() {
+            final ConnectionMode connectionMode = pushConfiguration.getConnectionSettings().getConnectionMode();
+            if (transport == null && (connectionMode == ConnectionMode.NON_BLOCKING || connectionMode == ConnectionMode.HTTP2)
+                    && !HttpClientTransport.isSupported()) {
+                throw new IllegalStateException("ConnectionMode." + connectionMode + " requires Java 11 or later, "
+                        + "use ConnectionMode.POOLED on older runtimes");
+            }
             return new DefaultPushSender(this);
         }
     }
@@ -239,25 +669,67 @@ public class DefaultPushSender implements PushSender {
             throw new IllegalStateException("server can not be null");
         }
 
-        return getServerURL() + "rest/sender/";
+        return getServerURL() + SENDER_PATH;
     }
 
     @Override
     public void send(UnifiedMessage unifiedMessage, MessageResponseCallback callback) {
-        final String jsonString = unifiedMessage.getObject().toJsonString();
-        // fire!
-        submitPayload(buildUrl(), pushConfiguration.getConnectionSettings(), jsonString, pushConfiguration.getPushApplicationId(), pushConfiguration.getMasterSecret(), callback, new ArrayList<>());
+        sendFrozen(shard(unifiedMessage), callback);
     }
 
     @Override
-    public void send(List<UnifiedMessage> unifiedMessages, MessageResponseCallback callback) {
+    public void send(FrozenMessage frozenMessage, MessageResponseCallback callback) {
+        sendFrozen(shard(frozenMessage), callback);
+    }
 
-        final String jsonString = unifiedMessages.stream()
-                .map(unifiedMessage -> unifiedMessage.getObject().toJsonString())
-                .collect(Collectors.toList()).toString();
+    private void sendFrozen(List<FrozenMessage> shards, MessageResponseCallback callback) {
+        if (shards.size() > 1) {
+            await(sendShardsAsync(shards));
+            if (callback != null) {
+                callback.onComplete();
+            }
+            return;
+        }
+        sendPayload(shards.get(0).getPayload(), callback);
+    }
 
+    @Override
+    public void send(FrozenMessage frozenMessage) {
+        send(frozenMessage, null);
+    }
+
+    private void sendPayload(byte[] payload, MessageResponseCallback callback) {
+        acquirePermits(1, payload.length);
+        if (batchingQueue != null) {
+            buildUrl();
+            await(batchingQueue.add(payload));
+            if (callback != null) {
+                callback.onComplete();
+            }
+            return;
+        }
         // fire!
-        submitPayload(buildUrl()+"batch/", pushConfiguration.getConnectionSettings(), jsonString, pushConfiguration.getPushApplicationId(), pushConfiguration.getMasterSecret(), callback, new ArrayList<>());
+        buildUrl();
+        submitWithRetries("", (url, encoded) -> transport.post(url, encoded, payload), callback);
+    }
+
+    @Override
+    public void send(List<UnifiedMessage> unifiedMessages, MessageResponseCallback callback) {
+        // the messages are serialized one by one while streaming the request body
+        final PayloadWriter payload = out -> {
+            final CountingOutputStream counted = new CountingOutputStream(out);
+            try {
+                writeJsonArray(unifiedMessages, counted);
+            } finally {
+                chargeStreamedBytes(counted.count);
+            }
+        };
+        // the size of a streamed payload isn't known upfront, its bytes are charged once written
+        acquirePermits(unifiedMessages.size(), 0);
+
+        // fire! retries serialize the messages again
+        buildUrl();
+        submitWithRetries(BATCH_PATH, (url, encoded) -> transport.postStreaming(url, encoded, payload), callback);
     }
 
     @Override
@@ -265,21 +737,683 @@ public class DefaultPushSender implements PushSender {
         send(unifiedMessage, null);
     }
 
+    /**
+     * Sends the given payload to installations of the referenced PushApplication without blocking the calling thread.
+     * The request runs on the {@link Builder#executor(Executor) executor} of the sender.
+     *
+     * @param unifiedMessage The {@link UnifiedMessage} to send.
+     * @return a {@link CompletableFuture} completed with the {@link PushResult} once the Push Server accepted the message,
+     * or exceptionally with a {@link PushSenderException} when sending failed.
+     */
+    public CompletableFuture<PushResult> sendAsync(UnifiedMessage unifiedMessage) {
+        return sendFrozenAsync(shard(unifiedMessage));
+    }
+
+    /**
+     * Sends the given, already serialized, payload to installations of the referenced PushApplication without blocking
+     * the calling thread. The request runs on the {@link Builder#executor(Executor) executor} of the sender.
+     *
+     * @param frozenMessage The {@link FrozenMessage} to send.
+     * @return a {@link CompletableFuture} completed with the {@link PushResult} once the Push Server accepted the message,
+     * or exceptionally with a {@link PushSenderException} when sending failed.
+     */
+    public CompletableFuture<PushResult> sendAsync(FrozenMessage frozenMessage) {
+        return sendFrozenAsync(shard(frozenMessage));
+    }
+
+    private CompletableFuture<PushResult> sendFrozenAsync(List<FrozenMessage> shards) {
+        if (shards.size() > 1) {
+            return sendShardsAsync(shards);
+        }
+        return sendPayloadAsync(shards.get(0).getPayload());
+    }
+
+    private CompletableFuture<PushResult> sendPayloadAsync(byte[] payload) {
+        buildUrl();
+        return withPermits(1, payload.length, () -> batchingQueue != null
+                ? batchingQueue.add(payload)
+                : submitPayloadAsync("", payload));
+    }
+
+    /**
+     * Sends the given payloads to installations of the referenced PushApplication without blocking the calling thread.
+     * The request runs on the {@link Builder#executor(Executor) executor} of the sender.
+     *
+     * @param unifiedMessages collection of {@link UnifiedMessage} to send.
+     * @return a {@link CompletableFuture} completed with the {@link PushResult} once the Push Server accepted the messages,
+     * or exceptionally with a {@link PushSenderException} when sending failed.
+     */
+    public CompletableFuture<PushResult> sendAsync(List<UnifiedMessage> unifiedMessages) {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try {
+            writeJsonArray(unifiedMessages, payload);
+        } catch (IOException e) {
+            throw new PushSenderException(e.getMessage(), e);
+        }
+        buildUrl();
+        final byte[] batch = payload.toByteArray();
+        return withPermits(unifiedMessages.size(), batch.length, () -> submitPayloadAsync(BATCH_PATH, batch));
+    }
+
+    /**
+     * Flushes the queued batch, closes the underlying {@link Transport}, releasing any kept alive connection, and stops
+     * the threads created for asynchronous sending.
+     */
+    @Override
+    public void close() throws IOException {
+        if (batchingQueue != null) {
+            batchingQueue.close();
+        }
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+        transport.close();
+    }
+
+    /**
+     * Serializes the given message, splitting its criteria into shards if they exceed the configured
+     * {@link Builder#criteriaShardSize(int) shard size}. Unsharded messages are serialized once, sending the same
+     * message again reuses its payload.
+     */
+    private List<FrozenMessage> shard(UnifiedMessage unifiedMessage) {
+        try {
+            return criteriaShardSize > 0
+                    ? unifiedMessage.shard(criteriaShardSize)
+                    : Collections.singletonList(unifiedMessage.freeze());
+        } catch (IllegalArgumentException e) {
+            throw new PushSenderException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Splits the given message like {@link #shard(UnifiedMessage)}, if it has been frozen from a {@link UnifiedMessage}.
+     */
+    private List<FrozenMessage> shard(FrozenMessage frozenMessage) {
+        try {
+            return criteriaShardSize > 0
+                    ? frozenMessage.shard(criteriaShardSize)
+                    : Collections.singletonList(frozenMessage);
+        } catch (IllegalArgumentException e) {
+            throw new PushSenderException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends the given shards concurrently, aggregating their outcomes into a {@link ShardedPushResult} or a
+     * {@link PushSenderShardException} listing the failed shards.
+     */
+    private CompletableFuture<PushResult> sendShardsAsync(List<FrozenMessage> shards) {
+        final List<CompletableFuture<PushResult>> results = new ArrayList<>(shards.size());
+        for (FrozenMessage shard : shards) {
+            results.add(sendPayloadAsync(shard.getPayload()));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).handle((ignored, failure) -> {
+            final List<PushResult> accepted = new ArrayList<>(shards.size());
+            final List<FrozenMessage> failedShards = new ArrayList<>();
+            final List<Throwable> shardFailures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                final CompletableFuture<PushResult> result = results.get(i);
+                if (!result.isCompletedExceptionally()) {
+                    accepted.add(result.join());
+                    continue;
+                }
+                final Throwable shardFailure = result.handle((value, t) -> unwrap(t)).join();
+                failedShards.add(shards.get(i));
+                // shards sent in the same batch share their failure, which must not be modified
+                if (!containsSame(shardFailures, shardFailure)) {
+                    shardFailures.add(shardFailure);
+                }
+            }
+            if (!failedShards.isEmpty()) {
+                throw new PushSenderShardException(shards.size(), failedShards, shardFailures);
+            }
+            return new ShardedPushResult(accepted);
+        });
+    }
+
+    /**
+     * Writes the given messages as a UTF-8 encoded JSON array, holding at most one serialized message in memory.
+     * The payloads are not cached on the messages, which would keep the whole batch in memory.
+     */
+    private static void writeJsonArray(List<UnifiedMessage> unifiedMessages, OutputStream out) throws IOException {
+        // not closed, the stream belongs to the caller
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        writer.write('[');
+        boolean first = true;
+        for (UnifiedMessage unifiedMessage : unifiedMessages) {
+            if (!first) {
+                // the same separator as toBatchPayload, so both paths send the same bytes
+                writer.write(',');
+            }
+            writer.write(unifiedMessage.getObject().toJsonString());
+            first = false;
+        }
+        writer.write(']');
+        writer.flush();
+    }
+
+    /**
+     * Joins the given JSON payloads into a JSON array.
+     */
+    private static byte[] toBatchPayload(List<byte[]> payloads) {
+        int length = payloads.size() + 1;
+        for (byte[] payload : payloads) {
+            length += payload.length;
+        }
+        final byte[] batch = new byte[length];
+        batch[0] = '[';
+        int position = 1;
+        for (byte[] payload : payloads) {
+            if (position > 1) {
+                batch[position++] = ',';
+            }
+            System.arraycopy(payload, 0, batch, position, payload.length);
+            position += payload.length;
+        }
+        batch[position] = ']';
+        return batch;
+    }
+
+    /**
+     * Takes the rate limit permits of a blocking send, waiting for them unless the policy is to fail fast.
+     */
+    private void acquirePermits(int messageCount, long byteCount) {
+        if (rateLimiter == null) {
+            return;
+        }
+        if (rateLimitPolicy == RateLimitPolicy.FAIL_FAST) {
+            if (!rateLimiter.tryAcquire(messageCount, byteCount)) {
+                throw new PushSenderRateLimitException("Rate limit exceeded, the message has not been sent");
+            }
+            return;
+        }
+        final long delay = rateLimiter.reserve(messageCount, byteCount);
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PushSenderException("Interrupted while waiting for the rate limit", e);
+            }
+        }
+    }
+
+    /**
+     * Charges the bytes of a streamed batch once written, the following sends wait for them like for the bytes of a
+     * message sent beforehand. The permits of the streamed batch itself have been taken before streaming it.
+     */
+    private void chargeStreamedBytes(long byteCount) {
+        if (rateLimiter != null && byteCount > 0) {
+            rateLimiter.reserve(0, byteCount);
+        }
+    }
+
+    /**
+     * Runs the given asynchronous send once its rate limit permits are available, delaying it without blocking the
+     * calling thread.
+     */
+    private CompletableFuture<PushResult> withPermits(int messageCount, long byteCount, Supplier<CompletableFuture<PushResult>> send) {
+        if (rateLimiter == null) {
+            return send.get();
+        }
+        if (rateLimitPolicy == RateLimitPolicy.FAIL_FAST) {
+            try {
+                acquirePermits(messageCount, byteCount);
+            } catch (PushSenderException e) {
+                final CompletableFuture<PushResult> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            }
+            return send.get();
+        }
+        final long delay = rateLimiter.reserve(messageCount, byteCount);
+        if (delay <= 0) {
+            return send.get();
+        }
+        final CompletableFuture<PushResult> result = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            try {
+                send.get().whenComplete((pushResult, failure) -> {
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(pushResult);
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * Returns the cause of a failure wrapped by a dependent {@link CompletableFuture} stage.
+     */
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    private static boolean containsSame(List<Throwable> failures, Throwable failure) {
+        for (Throwable known : failures) {
+            if (known == failure) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the batch or the shards of a single message sent through a blocking {@code send}.
+     */
+    private static void await(CompletableFuture<PushResult> result) {
+        try {
+            result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof PushSenderException) {
+                throw (PushSenderException) e.getCause();
+            }
+            throw new PushSenderException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Sends the given payload to the given path of the sender endpoint, e.g. {@code ""} or {@link #BATCH_PATH}.
+     */
+    private CompletableFuture<PushResult> submitPayloadAsync(String path, byte[] payload) {
+        final CompletableFuture<PushResult> result = new CompletableFuture<>();
+        attempt(() -> {
+            // read for every attempt, so that retries pick up rotated credentials
+            final String encoded = credentials.encoded;
+            final CircuitBreaker.Permission permission = circuitBreaker == null ? null : circuitBreaker.tryAcquirePermission();
+            if (circuitBreaker != null && permission == null) {
+                final CompletableFuture<PushResult> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new PushSenderCircuitOpenException("The circuit breaker is open, the message has not been sent"));
+                return rejected;
+            }
+            final CompletableFuture<PushResult> request = asyncExecutor.submitAsync(() -> {
+                final long startTime = System.nanoTime();
+                return adaptConcurrency(postToEndpoint(path, payload, encoded, new ArrayList<>(), null), startTime);
+            });
+            return circuitBreaker == null ? request : request.whenComplete((pushResult, failure) -> recordOutcome(permission, unwrap(failure)));
+        }, 1, System.nanoTime(), result);
+        return result;
+    }
+
+    /**
+     * Feeds the outcome of the given request into the adaptive concurrency limit, before its in-flight slot is freed.
+     */
+    private CompletableFuture<PushResult> adaptConcurrency(CompletableFuture<PushResult> request, long startTime) {
+        if (concurrencyLimit == null) {
+            return request;
+        }
+        return request.whenComplete((pushResult, failure) -> {
+            final int limit;
+            if (failure == null) {
+                limit = concurrencyLimit.onSuccess(System.nanoTime() - startTime);
+            } else if (isOverload(unwrap(failure))) {
+                limit = concurrencyLimit.onOverload(startTime);
+                pauseForRetryAfter(unwrap(failure));
+            } else {
+                return;
+            }
+            if (limit != asyncExecutor.getMaxInFlight()) {
+                logger.log(Level.FINE, String.format("Adjusting the in-flight requests limit to %d", limit));
+                asyncExecutor.setMaxInFlight(limit);
+            }
+        });
+    }
+
+    /**
+     * Stops starting requests until the {@code Retry-After} delay returned by the overloaded server has passed.
+     */
+    private void pauseForRetryAfter(Throwable failure) {
+        if (!(failure instanceof PushSenderHttpException)) {
+            return;
+        }
+        final long retryAfter = ((PushSenderHttpException) failure).getRetryAfter();
+        if (retryAfter > 0) {
+            final long maxPause = retryPolicy != null ? retryPolicy.getMaxRetryAfter() : RetryPolicy.DEFAULT_MAX_RETRY_AFTER;
+            logger.log(Level.FINE, String.format("Pausing new requests for %d ms", Math.min(retryAfter, maxPause)));
+            asyncExecutor.pause(Math.min(retryAfter, maxPause), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * checks if the given failure tells that the Push Server is overloaded (429 or 503 response status code, or timeout)
+     */
+    private static boolean isOverload(Throwable failure) {
+        if (failure instanceof PushSenderHttpException) {
+            final int statusCode = ((PushSenderHttpException) failure).getStatusCode();
+            return statusCode == 429 || statusCode == HttpURLConnection.HTTP_UNAVAILABLE;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Submits the payload of a blocking send, retrying it according to the {@link RetryPolicy}. The first attempt
+     * runs on the calling thread, the retries are scheduled on the executor while the calling thread waits.
+     */
+    private void submitWithRetries(String path, Submission submission, MessageResponseCallback callback) {
+        if (concurrencyLimit != null) {
+            // shares the adaptive limit and the Retry-After pauses with the asynchronous sends
+            final CompletableFuture<PushResult> result = new CompletableFuture<>();
+            attempt(() -> submitLimited(path, submission), 1, System.nanoTime(), result);
+            await(result);
+            if (callback != null) {
+                callback.onComplete();
+            }
+            return;
+        }
+        if (retryPolicy == null) {
+            submitGuarded(path, submission, callback);
+            return;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            submitGuarded(path, submission, callback);
+        } catch (PushSenderException e) {
+            final CompletableFuture<PushResult> result = new CompletableFuture<>();
+            retry(() -> asyncExecutor.submit(() -> submitGuarded(path, submission, null)), 1, startTime, e, result);
+            await(result);
+            if (callback != null) {
+                callback.onComplete();
+            }
+        }
+    }
+
+    /**
+     * Runs an attempt of a blocking send on the executor, within the adaptive concurrency limit.
+     */
+    private CompletableFuture<PushResult> submitLimited(String path, Submission submission) {
+        return asyncExecutor.submitAsync(() -> {
+            final long startTime = System.nanoTime();
+            final CompletableFuture<PushResult> request = new CompletableFuture<>();
+            try {
+                request.complete(submitGuarded(path, submission, null));
+            } catch (RuntimeException e) {
+                request.completeExceptionally(e);
+            }
+            return adaptConcurrency(request, startTime);
+        });
+    }
+
+    /**
+     * Submits the payload of a blocking send through the {@link CircuitBreaker}.
+     */
+    private PushResult submitGuarded(String path, Submission submission, MessageResponseCallback callback) {
+        if (circuitBreaker == null) {
+            return submitToEndpoint(path, submission, callback);
+        }
+        final CircuitBreaker.Permission permission = circuitBreaker.tryAcquirePermission();
+        if (permission == null) {
+            throw new PushSenderCircuitOpenException("The circuit breaker is open, the message has not been sent");
+        }
+        Throwable failure = null;
+        try {
+            return submitToEndpoint(path, submission, callback);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            // whatever happened, a half open circuit breaker waits for the outcome of its trial requests
+            recordOutcome(permission, failure);
+        }
+    }
+
+    /**
+     * Submits the payload of a blocking send to the node selected by the {@link LoadBalancer}, failing over to the
+     * other nodes when the connection fails.
+     */
+    private PushResult submitToEndpoint(String path, Submission submission, MessageResponseCallback callback) {
+        if (loadBalancer == null) {
+            return submitResolved(buildUrl() + path, submission, callback);
+        }
+        final List<LoadBalancer.Endpoint> tried = new ArrayList<>();
+        while (true) {
+            final LoadBalancer.Endpoint endpoint = loadBalancer.select(tried);
+            tried.add(endpoint);
+            final long startTime = endpoint.onStart();
+            try {
+                final PushResult pushResult = submitResolved(endpoint.getUrl() + SENDER_PATH + path, submission, callback);
+                endpoint.onSuccess(startTime);
+                return pushResult;
+            } catch (PushSenderException e) {
+                recordEndpointOutcome(endpoint, startTime, e);
+                if (!isConnectionFailure(e) || tried.size() == loadBalancer.getEndpoints().size()) {
+                    throw e;
+                }
+                logger.log(Level.INFO, String.format("Could not connect to '%s', failing over", endpoint.getUrl()));
+            }
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #submitToEndpoint(String, Submission, MessageResponseCallback)}.
+     */
+    private CompletableFuture<PushResult> postToEndpoint(String path, byte[] payload, String encodedCredentials,
+                                                         List<LoadBalancer.Endpoint> tried, Throwable lastFailure) {
+        if (loadBalancer == null) {
+            return postResolved(buildUrl() + path, payload, encodedCredentials);
+        }
+        final LoadBalancer.Endpoint endpoint = loadBalancer.select(tried);
+        final CompletableFuture<PushResult> result = new CompletableFuture<>();
+        if (endpoint == null) {
+            result.completeExceptionally(lastFailure);
+            return result;
+        }
+        tried.add(endpoint);
+        final long startTime = endpoint.onStart();
+        postResolved(endpoint.getUrl() + SENDER_PATH + path, payload, encodedCredentials).whenComplete((pushResult, failure) -> {
+            if (failure == null) {
+                endpoint.onSuccess(startTime);
+                result.complete(pushResult);
+                return;
+            }
+            final Throwable cause = unwrap(failure);
+            recordEndpointOutcome(endpoint, startTime, cause);
+            if (!isConnectionFailure(cause)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            logger.log(Level.INFO, String.format("Could not connect to '%s', failing over", endpoint.getUrl()));
+            postToEndpoint(path, payload, encodedCredentials, tried, cause).whenComplete((failedOver, failOverFailure) -> {
+                if (failOverFailure != null) {
+                    result.completeExceptionally(failOverFailure);
+                } else {
+                    result.complete(failedOver);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Submits the payload of a blocking send to the remembered target of the given URL, if it is redirected.
+     */
+    private PushResult submitResolved(String url, Submission submission, MessageResponseCallback callback) {
+        final String resolvedUrl = redirectCache == null ? url : redirectCache.resolve(url);
+        try {
+            return submitPayload(resolvedUrl, submission, callback, new ArrayList<>());
+        } catch (PushSenderException e) {
+            if (!resolvedUrl.equals(url)) {
+                redirectCache.evict(url);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #submitResolved(String, Submission, MessageResponseCallback)}.
+     */
+    private CompletableFuture<PushResult> postResolved(String url, byte[] payload, String encodedCredentials) {
+        final String resolvedUrl = redirectCache == null ? url : redirectCache.resolve(url);
+        final CompletableFuture<PushResult> request = postPayload(resolvedUrl, payload, encodedCredentials, new ArrayList<>());
+        if (resolvedUrl.equals(url)) {
+            return request;
+        }
+        return request.whenComplete((pushResult, failure) -> {
+            if (failure != null) {
+                redirectCache.evict(url);
+            }
+        });
+    }
+
+    /**
+     * Records the outcome of a failed request in the health of the node it was sent to.
+     */
+    private static void recordEndpointOutcome(LoadBalancer.Endpoint endpoint, long startTime, Throwable failure) {
+        if (isServerFailure(failure)) {
+            endpoint.onFailure(startTime);
+        } else {
+            endpoint.onSuccess(startTime);
+        }
+    }
+
+    /**
+     * checks if the given failure happened while connecting, before the request could reach the Push Server
+     */
+    private static boolean isConnectionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the outcome of a request permitted by the {@link CircuitBreaker}. Only failures caused by the Push Server
+     * count, a client error means the server is up.
+     */
+    private static void recordOutcome(CircuitBreaker.Permission permission, Throwable failure) {
+        if (failure == null || !isServerFailure(failure)) {
+            permission.onSuccess();
+        } else {
+            permission.onFailure();
+        }
+    }
+
+    /**
+     * checks if the given failure is caused by the Push Server (5xx response status code, or I/O error)
+     */
+    private static boolean isServerFailure(Throwable failure) {
+        if (failure instanceof PushSenderHttpException) {
+            return ((PushSenderHttpException) failure).getStatusCode() >= 500;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the given attempt, retrying it on failure according to the {@link RetryPolicy}.
+     */
+    private void attempt(Supplier<CompletableFuture<PushResult>> attempt, int attemptNumber, long startTime,
+                         CompletableFuture<PushResult> result) {
+        CompletableFuture<PushResult> outcome;
+        try {
+            outcome = attempt.get();
+        } catch (RuntimeException e) {
+            outcome = new CompletableFuture<>();
+            outcome.completeExceptionally(e);
+        }
+        outcome.whenComplete((pushResult, failure) -> {
+            if (failure == null) {
+                result.complete(pushResult);
+            } else {
+                retry(attempt, attemptNumber, startTime, unwrap(failure), result);
+            }
+        });
+    }
+
+    /**
+     * Schedules the next attempt after the given failed one, or fails the result if the failure is final.
+     */
+    private void retry(Supplier<CompletableFuture<PushResult>> attempt, int failedAttempt, long startTime, Throwable failure,
+                       CompletableFuture<PushResult> result) {
+        final long delay = retryPolicy == null ? -1
+                : retryPolicy.getRetryDelay(failedAttempt, failure, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        if (delay < 0) {
+            result.completeExceptionally(failure);
+            return;
+        }
+        logger.log(Level.INFO, String.format("Attempt %d failed, retrying in %d ms", failedAttempt, delay), failure);
+        try {
+            scheduler.schedule(() -> attempt(attempt, failedAttempt + 1, startTime, result), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the sender has been closed
+            result.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #submitPayload(String, Submission, MessageResponseCallback, List)},
+     * it only blocks if the {@link Transport} does.
+     */
+    private CompletableFuture<PushResult> postPayload(String url, byte[] payload, String encodedCredentials, List<String> redirectUrls) {
+        final CompletableFuture<PushResult> result = new CompletableFuture<>();
+        if (redirectUrls.contains(url)) {
+            result.completeExceptionally(new PushSenderException("The site contains an infinite redirect loop! Duplicate url: " +
+                    url));
+            return result;
+        }
+        redirectUrls.add(url);
+
+        transport.postAsync(url, encodedCredentials, payload).whenComplete((response, failure) -> {
+            if (failure != null) {
+                final Throwable cause = unwrap(failure);
+                logger.log(Level.INFO, "Error happening while trying to send the push delivery request", cause);
+                result.completeExceptionally(cause instanceof PushSenderException ? cause : new PushSenderException(cause.getMessage(), cause));
+                return;
+            }
+            try {
+                final String redirectURL = checkResponse(response);
+                if (redirectURL != null) {
+                    cacheRedirect(url, response.getStatusCode(), redirectURL);
+                    postPayload(redirectURL, payload, encodedCredentials, redirectUrls).whenComplete((redirected, redirectFailure) -> {
+                        if (redirectFailure != null) {
+                            result.completeExceptionally(redirectFailure);
+                        } else {
+                            result.complete(redirected);
+                        }
+                    });
+                } else {
+                    result.complete(new PushResult(response.getStatusCode()));
+                }
+            } catch (PushSenderException pse) {
+                result.completeExceptionally(pse);
+            }
+        });
+        return result;
+    }
+
     /**
      * The actual method that does the real send and connection handling
      *
      * @param url the URL to use for the HTTP POST request.
-     * @param connectionSettings additional settings to use for the underlying {@link java.net.URLConnection}.
-     * @param jsonPayloadObject the JSON payload of the POST request
-     * @param pushApplicationId the registered applications identifier.
-     * @param masterSecret the master secret for the push server.
+     * @param submission POSTs the payload through the {@link Transport}
      * @param callback the {@link org.jboss.aerogear.unifiedpush.message.MessageResponseCallback} that will be called once the POST request completes.
      * @param redirectUrls a list containing the previous redirectUrls, used to detect an infinite loop
+     * @return the {@link PushResult} of the accepted request
      * @throws org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException when delivering push message to Unified Push Server fails.
      * @throws org.jboss.aerogear.unifiedpush.exception.PushSenderException when generic error during sending occurs, such as an infinite redirect loop.
      */
-    private void submitPayload(String url, HttpRequestUtil.ConnectionSettings connectionSettings, String jsonPayloadObject, String pushApplicationId, String masterSecret,
-                               MessageResponseCallback callback, List<String> redirectUrls) {
+    private PushResult submitPayload(String url, Submission submission, MessageResponseCallback callback, List<String> redirectUrls) {
         if (redirectUrls.contains(url)) {
             throw new PushSenderException("The site contains an infinite redirect loop! Duplicate url: " +
                     url);
@@ -287,34 +1421,21 @@ public class DefaultPushSender implements PushSender {
             redirectUrls.add(url);
         }
 
-        HttpURLConnection httpURLConnection = null;
         try {
-            final String credentials = pushApplicationId + ':' + masterSecret;
-            final String encoded = Base64.encodeBytes(credentials.getBytes(UTF_8));
-
             // POST the payload to the UnifiedPush Server
-            httpURLConnection = (HttpURLConnection) HttpRequestUtil.post(url, encoded, jsonPayloadObject, UTF_8, proxy,
-                    customTrustStore, connectionSettings);
-
-            final int statusCode = httpURLConnection.getResponseCode();
-            logger.log(Level.INFO, String.format("HTTP Response code from UnifiedPush Server: %s", statusCode));
+            final TransportResponse response = submission.post(url, credentials.encoded);
 
-            // if we got a redirect, let's extract the 'Location' header from the response
-            // and submit the payload again
-            if (isRedirect(statusCode)) {
-                String redirectURL = httpURLConnection.getHeaderField("Location");
-                logger.log(Level.INFO, String.format("Performing redirect to '%s'", redirectURL));
+            // if we got a redirect, submit the payload again to the 'Location' of the response
+            final String redirectURL = checkResponse(response);
+            if (redirectURL != null) {
+                cacheRedirect(url, response.getStatusCode(), redirectURL);
                 // execute the 'redirect'
-                submitPayload(redirectURL, pushConfiguration.getConnectionSettings(), jsonPayloadObject, pushApplicationId, masterSecret, callback, redirectUrls);
-            } else if (statusCode >= 400) {
-                // treating any 400/500 error codes an an exception to a sending attempt:
-                logger.log(Level.SEVERE, "The Unified Push Server returned status code: " + statusCode);
-                throw new PushSenderHttpException(statusCode);
-            } else {
-                if (callback != null) {
-                    callback.onComplete();
-                }
+                return submitPayload(redirectURL, submission, callback, redirectUrls);
+            }
+            if (callback != null) {
+                callback.onComplete();
             }
+            return new PushResult(response.getStatusCode());
         } catch (PushSenderHttpException pshe) {
             throw pshe;
         } catch (Exception e) {
@@ -322,22 +1443,143 @@ public class DefaultPushSender implements PushSender {
 
             throw new PushSenderException(e.getMessage(), e);
         }
-        finally {
-            // tear down
-            if (httpURLConnection != null) {
-                httpURLConnection.disconnect();
+    }
+
+    /**
+     * Counts the bytes of a streamed request body.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * The credentials of the PushApplication, along with their Base64 encoding sent in the Authorization header of
+     * every request, computed once.
+     */
+    private static final class Credentials {
+
+        private final String pushApplicationId;
+        private final String masterSecret;
+        private final String encoded;
+
+        private Credentials(String pushApplicationId, String masterSecret) {
+            this.pushApplicationId = pushApplicationId;
+            this.masterSecret = masterSecret;
+            this.encoded = Base64.getEncoder().encodeToString((pushApplicationId + ':' + masterSecret).getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * POSTs the payload of a blocking send to the given URL.
+     */
+    private interface Submission {
+        TransportResponse post(String url, String encodedCredentials) throws Exception;
+    }
+
+    /**
+     * Checks the status code of the given response.
+     *
+     * @return the URL to redirect to or {@code null} if the request has been accepted
+     * @throws PushSenderHttpException when the Push Server returned an error status code
+     */
+    private static String checkResponse(TransportResponse response) {
+        final int statusCode = response.getStatusCode();
+        logger.log(Level.INFO, String.format("HTTP Response code from UnifiedPush Server: %s", statusCode));
+
+        if (isRedirect(statusCode)) {
+            final String redirectURL = response.getHeader("Location");
+            logger.log(Level.INFO, String.format("Performing redirect to '%s'", redirectURL));
+            return redirectURL;
+        } else if (statusCode >= 400) {
+            // treating any 400/500 error codes an an exception to a sending attempt:
+            logger.log(Level.SEVERE, "The Unified Push Server returned status code: " + statusCode);
+            throw new PushSenderHttpException(statusCode, parseRetryAfter(response.getHeader("Retry-After")));
+        }
+        return null;
+    }
+
+    /**
+     * Parses the value of a {@code Retry-After} header, either a number of seconds or an HTTP date.
+     *
+     * @return the delay in ms, or -1 if not present or invalid
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (isEmpty(retryAfter)) {
+            return -1;
+        }
+        try {
+            // saturates instead of overflowing
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                final ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException invalid) {
+                logger.log(Level.INFO, String.format("Ignoring invalid Retry-After header '%s'", retryAfter));
+                return -1;
             }
+        }
+    }
 
+    /**
+     * Remembers the target of a permanent redirect.
+     */
+    private void cacheRedirect(String url, int statusCode, String redirectURL) {
+        if (redirectCache != null && isPermanentRedirect(statusCode) && !isEmpty(redirectURL)) {
+            redirectCache.put(url, redirectURL);
         }
     }
 
     /**
-     * checks if the given status code is a redirect (301, 302 or 303 response status code)
+     * checks if the given status code is a redirect (301, 302, 303 or 308 response status code)
      */
     private static boolean isRedirect(int statusCode) {
         return statusCode == HttpURLConnection.HTTP_MOVED_PERM ||
                 statusCode == HttpURLConnection.HTTP_MOVED_TEMP ||
-                statusCode == HttpURLConnection.HTTP_SEE_OTHER;
+                statusCode == HttpURLConnection.HTTP_SEE_OTHER ||
+                statusCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * checks if the given status code is a permanent redirect (301 or 308 response status code)
+     */
+    private static boolean isPermanentRedirect(int statusCode) {
+        return statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Get the circuit breaker guarding the requests, e.g. to monitor its state.
+     *
+     * @return the {@link CircuitBreaker}, {@code null} if not configured
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Get the load balancer spreading the requests over the server nodes, e.g. to monitor their health.
+     *
+     * @return the {@link LoadBalancer}, {@code null} if a single server URL is configured
+     */
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
     }
 
     /**
@@ -362,12 +1604,24 @@ public class DefaultPushSender implements PushSender {
 
     @Override
     public String getPushApplicationId() {
-        return pushConfiguration.getPushApplicationId();
+        return credentials.pushApplicationId;
     }
 
     @Override
     public String getMasterSecret() {
-        return pushConfiguration.getMasterSecret();
+        return credentials.masterSecret;
+    }
+
+    /**
+     * Atomically replaces the credentials used to authenticate against the Push Server, e.g. to rotate the master
+     * secret. Requests started afterwards, including retries of earlier sends, use the new credentials. The
+     * {@link PushConfiguration} the sender has been built from is left untouched, it may be shared with other senders.
+     *
+     * @param pushApplicationId the registered applications identifier.
+     * @param masterSecret the master secret for the push server.
+     */
+    public void rotateCredentials(String pushApplicationId, String masterSecret) {
+        credentials = new Credentials(pushApplicationId, masterSecret);
     }
 
     protected PushConfiguration getPushConfiguration() { return pushConfiguration; }
@@ -16,6 +16,7 @@
  */
 package org.jboss.aerogear.unifiedpush;
 
+import org.jboss.aerogear.unifiedpush.message.FrozenMessage;
 import org.jboss.aerogear.unifiedpush.message.MessageResponseCallback;
 import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
 import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
@@ -51,6 +52,31 @@ public interface PushSender {
      */
     void send(UnifiedMessage unifiedMessage);
 
+    /**
+     * Sends the given, already serialized, payload to installations of the referenced PushApplication.
+     * We also pass a {@link MessageResponseCallback} to handle the message
+     *
+     * <p>
+     * The default implementation delegates to {@link #send(FrozenMessage)}.
+     *
+     * @param frozenMessage the {@link FrozenMessage} to send.
+     * @param callback the {@link MessageResponseCallback}.
+     */
+    default void send(FrozenMessage frozenMessage, MessageResponseCallback callback) {
+        send(frozenMessage);
+        if (callback != null) {
+            callback.onComplete();
+        }
+    }
+
+    /**
+     * Sends the given, already serialized, payload to installations of the referenced PushApplication.
+     *
+     * @param frozenMessage The {@link FrozenMessage} to send.
+     * @throws org.jboss.aerogear.unifiedpush.exception.PushSenderException when generic error during sending occurs, such as an infinite redirect loop.
+     */
+    void send(FrozenMessage frozenMessage);
+
     /**
      * Returns the current configured server URL
      *
@@ -0,0 +1,49 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a message whose criteria have been split into shards, all of which have been accepted by the
+ * UnifiedPush Server.
+ */
+public class ShardedPushResult extends PushResult {
+
+    private final List<PushResult> shardResults;
+
+    /**
+     * @param shardResults The results of the shards, in the order the shards were created.
+     */
+    public ShardedPushResult(List<PushResult> shardResults) {
+        super(shardResults.get(0).getStatusCode());
+        this.shardResults = Collections.unmodifiableList(shardResults);
+    }
+
+    /**
+     * @return the results of the individual shards
+     */
+    public List<PushResult> getShardResults() {
+        return shardResults;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedPushResult{statusCode=" + getStatusCode() + ", shards=" + shardResults.size() + '}';
+    }
+}
@@ -16,10 +16,38 @@
  */
 package org.jboss.aerogear.unifiedpush.ca;
 
+import java.io.File;
+import java.security.KeyStore;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+
 public class TrustStoreManagerService {
 
+    public static final long DEFAULT_RELOAD_INTERVAL = 60000;
+
+    private static final Logger logger = Logger.getLogger(TrustStoreManagerService.class.getName());
+
     private TrustStoreManager trustStoreManager = null;
 
+    private final ConcurrentMap<TrustStoreKey, CachedSSLSocketFactory> sslSocketFactories = new ConcurrentHashMap<>();
+
+    private long reloadInterval = DEFAULT_RELOAD_INTERVAL;
+    private ScheduledExecutorService reloadExecutor;
+    private ScheduledFuture<?> reloadTask;
+
     private TrustStoreManagerService() {
         trustStoreManager = new TrustStoreManagerImpl();
     }
@@ -35,4 +63,229 @@ public class TrustStoreManagerService {
     public TrustStoreManager getTrustStoreManager() {
         return this.trustStoreManager;
     }
+
+    /**
+     * Returns the {@link SSLSocketFactory} trusting the certificates of the given trustStore. The factory is only
+     * built once per trustStore path, type and password and shared afterwards, which also allows TLS sessions to be
+     * resumed across connections.
+     * <p>
+     * The trustStore files are checked for modifications in the background, see {@link #setReloadInterval(long)}.
+     * A modified trustStore is loaded off the send path and its factory replaces the previous one atomically, so the
+     * CAs can be rotated without restarting the JVM.
+     *
+     * @param trustStoreConfig The trustStore configuration.
+     * @return {@link SSLSocketFactory}
+     * @throws Exception
+     */
+    public SSLSocketFactory getSSLSocketFactory(TrustStoreConfig trustStoreConfig) throws Exception {
+        return getCached(trustStoreConfig).loaded.sslSocketFactory;
+    }
+
+    /**
+     * Returns the {@link SSLContext} trusting the certificates of the given trustStore, for clients that can't be
+     * configured with a {@link SSLSocketFactory}. Like {@link #getSSLSocketFactory(TrustStoreConfig)} the context is
+     * built once and replaced when the trustStore file gets modified.
+     *
+     * @param trustStoreConfig The trustStore configuration.
+     * @return {@link SSLContext}
+     * @throws Exception
+     */
+    public SSLContext getSSLContext(TrustStoreConfig trustStoreConfig) throws Exception {
+        return getCached(trustStoreConfig).loaded.sslContext;
+    }
+
+    private CachedSSLSocketFactory getCached(TrustStoreConfig trustStoreConfig) throws Exception {
+        final TrustStoreKey key = new TrustStoreKey(trustStoreConfig);
+        CachedSSLSocketFactory cached = sslSocketFactories.get(key);
+        if (cached == null) {
+            synchronized (sslSocketFactories) {
+                cached = sslSocketFactories.get(key);
+                if (cached == null) {
+                    cached = new CachedSSLSocketFactory(trustStoreConfig);
+                    cached.load();
+                    sslSocketFactories.put(key, cached);
+                    scheduleReload();
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Discards all cached {@link SSLSocketFactory} instances, they are rebuilt on the next request. The background
+     * check for modified trustStores stops until then.
+     */
+    public void clearSSLSocketFactories() {
+        synchronized (sslSocketFactories) {
+            sslSocketFactories.clear();
+            cancelReload();
+        }
+    }
+
+    /**
+     * Discards all cached {@link SSLSocketFactory} instances and stops the thread checking the trustStores for
+     * modifications, e.g. when the application is undeployed. The service can still be used afterwards, the thread
+     * is started again once a trustStore is loaded.
+     */
+    public void shutdown() {
+        synchronized (sslSocketFactories) {
+            sslSocketFactories.clear();
+            synchronized (this) {
+                cancelReload();
+                if (reloadExecutor != null) {
+                    reloadExecutor.shutdownNow();
+                    reloadExecutor = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how often the cached trustStore files are checked for modifications.
+     *
+     * @param reloadInterval The interval in ms, zero or less disables reloading. Defaults to {@link #DEFAULT_RELOAD_INTERVAL}.
+     */
+    public synchronized void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+        cancelReload();
+        if (!sslSocketFactories.isEmpty()) {
+            scheduleReload();
+        }
+    }
+
+    /**
+     * Reloads every cached trustStore whose file has been modified since it was last loaded.
+     */
+    public void reloadModifiedTrustStores() {
+        for (CachedSSLSocketFactory cached : sslSocketFactories.values()) {
+            if (cached.isModified()) {
+                try {
+                    cached.load();
+                    logger.log(Level.INFO, "Reloaded modified trustStore " + cached.trustStoreConfig.getTrustStorePath());
+                } catch (Exception e) {
+                    // keep using the previous one, the reload is attempted again on the next check
+                    logger.log(Level.WARNING, "Could not reload trustStore " + cached.trustStoreConfig.getTrustStorePath(), e);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleReload() {
+        if (reloadTask != null || reloadInterval <= 0) {
+            return;
+        }
+        if (reloadExecutor == null) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "aerogear-truststore-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        reloadTask = reloadExecutor.scheduleWithFixedDelay(this::reloadModifiedTrustStores, reloadInterval, reloadInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelReload() {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadTask = null;
+        }
+    }
+
+    /**
+     * @return true if the trustStores are currently checked for modifications
+     */
+    synchronized boolean isReloadScheduled() {
+        return reloadTask != null;
+    }
+
+    private SSLContext createSSLContext(TrustStoreConfig trustStoreConfig) throws Exception {
+        final KeyStore trustStore = trustStoreManager.loadTrustStore(trustStoreConfig.getTrustStorePath(),
+                trustStoreConfig.getTrustStoreType(), trustStoreConfig.getTrustStorePassword());
+        final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trustStore);
+        final SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    /**
+     * The {@link SSLContext} and {@link SSLSocketFactory} of a trustStore along with the state of the file it was loaded from.
+     */
+    private final class CachedSSLSocketFactory {
+
+        private final TrustStoreConfig trustStoreConfig;
+        private final File file;
+        private volatile LoadedTrustStore loaded;
+
+        private CachedSSLSocketFactory(TrustStoreConfig trustStoreConfig) {
+            this.trustStoreConfig = new TrustStoreConfig(trustStoreConfig.getTrustStorePath(),
+                    trustStoreConfig.getTrustStoreType(), trustStoreConfig.getTrustStorePassword());
+            this.file = new File(trustStoreConfig.getTrustStorePath());
+        }
+
+        private boolean isModified() {
+            final LoadedTrustStore current = loaded;
+            return file.lastModified() != current.lastModified || file.length() != current.length;
+        }
+
+        private void load() throws Exception {
+            // taken before loading, so a modification while loading is picked up by the next check
+            final long modified = file.lastModified();
+            final long size = file.length();
+            // published at once, so a context is never handed out along with the factory of another one
+            loaded = new LoadedTrustStore(createSSLContext(trustStoreConfig), modified, size);
+        }
+    }
+
+    /**
+     * Immutable result of loading a trustStore file.
+     */
+    private static final class LoadedTrustStore {
+
+        private final SSLContext sslContext;
+        private final SSLSocketFactory sslSocketFactory;
+        private final long lastModified;
+        private final long length;
+
+        private LoadedTrustStore(SSLContext sslContext, long lastModified, long length) {
+            this.sslContext = sslContext;
+            this.sslSocketFactory = sslContext.getSocketFactory();
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Identifies a trustStore by its path, type and password.
+     */
+    private static final class TrustStoreKey {
+
+        private final String path;
+        private final String type;
+        private final String password;
+
+        private TrustStoreKey(TrustStoreConfig trustStoreConfig) {
+            this.path = trustStoreConfig.getTrustStorePath();
+            this.type = trustStoreConfig.getTrustStoreType();
+            this.password = trustStoreConfig.getTrustStorePassword();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TrustStoreKey)) {
+                return false;
+            }
+            final TrustStoreKey that = (TrustStoreKey) o;
+            return Objects.equals(path, that.path) && Objects.equals(type, that.type) && Objects.equals(password, that.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, type, password);
+        }
+    }
 }
@@ -24,6 +24,7 @@ public class PushSenderHttpException extends PushSenderException {
     static final long serialVersionUID = -234897190745766939L;
 
     private int statusCode = -1;
+    private long retryAfter = -1;
 
     /**
      * Constructs a new push sender runtime exception with the given http status code.
@@ -33,6 +34,17 @@ public class PushSenderHttpException extends PushSenderException {
         this.statusCode = statusCode;
     }
 
+    /**
+     * Constructs a new push sender runtime exception with the given http status code and the delay requested by the
+     * server through the {@code Retry-After} header.
+     * @param statusCode
+     * @param retryAfter the delay in ms, -1 if not present
+     */
+    public PushSenderHttpException(int statusCode, long retryAfter) {
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
     /**
      * If present, returns the error status code from the Unified Push server
      * @return if present, the status code, otherwise -1
@@ -45,4 +57,12 @@ public class PushSenderHttpException extends PushSenderException {
         this.statusCode = httpErrorStatusCode;
     }
 
+    /**
+     * If present, returns the delay the Unified Push server asked to wait before sending again
+     * @return if present, the delay in ms, otherwise -1
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
 }
@@ -0,0 +1,74 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.aerogear.unifiedpush.message.FrozenMessage;
+
+/**
+ * Thrown when some shards of a message whose criteria have been split could not be delivered. The other shards have
+ * been accepted, so only the failed shards should be sent again. The failure of the first failed shard is the cause,
+ * the failures of the other shards are suppressed by this exception, the shard failures themselves are left untouched
+ * as they may be shared with other callers.
+ */
+public class PushSenderShardException extends PushSenderException {
+
+    static final long serialVersionUID = -4197145330964125734L;
+
+    private final int shardCount;
+    private final transient List<FrozenMessage> failedShards;
+    private final transient List<Throwable> shardFailures;
+
+    /**
+     * @param shardCount The number of shards the message has been split into.
+     * @param failedShards The shards which could not be delivered.
+     * @param shardFailures The distinct failures of the failed shards, the first one is the cause.
+     */
+    public PushSenderShardException(int shardCount, List<FrozenMessage> failedShards, List<Throwable> shardFailures) {
+        super(failedShards.size() + " of " + shardCount + " shards could not be delivered", shardFailures.get(0));
+        this.shardCount = shardCount;
+        this.failedShards = Collections.unmodifiableList(new ArrayList<FrozenMessage>(failedShards));
+        this.shardFailures = Collections.unmodifiableList(new ArrayList<Throwable>(shardFailures));
+        for (int i = 1; i < this.shardFailures.size(); i++) {
+            addSuppressed(this.shardFailures.get(i));
+        }
+    }
+
+    /**
+     * @return the number of shards the message has been split into
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return the shards which could not be delivered
+     */
+    public List<FrozenMessage> getFailedShards() {
+        return failedShards;
+    }
+
+    /**
+     * @return the distinct failures of the failed shards, shards sent in the same request share their failure
+     */
+    public List<Throwable> getShardFailures() {
+        return shardFailures;
+    }
+}
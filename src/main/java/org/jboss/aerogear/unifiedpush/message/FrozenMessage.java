@@ -0,0 +1,170 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable {@link UnifiedMessage} which has already been serialized to its UTF-8 encoded JSON payload.
+ * <p>
+ * Freezing a message validates and serializes it once, the frozen message can then be sent any number of times,
+ * from any thread, without being serialized again. Changes made to the {@link UnifiedMessage} after it has been frozen
+ * are not reflected. To freeze a message use {@link UnifiedMessage#freeze()} like this :
+ *
+ * <pre>
+ * {@code
+ *     FrozenMessage frozenMessage = UnifiedMessage.withMessage()
+ *             .alert("Hello")
+ *             .criteria()
+ *                  .categories("sport")
+ *             .build()
+ *             .freeze();
+ * }
+ * </pre>
+ */
+public final class FrozenMessage {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Returned by {@link UnifiedPushMessage#toJsonString()} when the message can't be serialized.
+     */
+    private static final String INVALID_JSON = "[\"invalid json\"]";
+
+    private final byte[] payload;
+
+    /**
+     * The immutable snapshot the payload was serialized from, {@code null} for rendered templates.
+     */
+    private final UnifiedPushMessage source;
+
+    /**
+     * @param payload The encoded payload, which must not be modified afterwards.
+     */
+    FrozenMessage(byte[] payload) {
+        this(payload, null);
+    }
+
+    private FrozenMessage(byte[] payload, UnifiedPushMessage source) {
+        this.payload = payload;
+        this.source = source;
+    }
+
+    /**
+     * Serializes the given message.
+     *
+     * @param unifiedMessage The message to freeze.
+     * @return the {@link FrozenMessage}
+     * @throws IllegalArgumentException when the message can't be serialized.
+     */
+    public static FrozenMessage of(UnifiedMessage unifiedMessage) {
+        if (unifiedMessage == null) {
+            throw new IllegalArgumentException("unifiedMessage can not be null");
+        }
+        return freeze(unifiedMessage.getObject());
+    }
+
+    /**
+     * @throws IllegalArgumentException when the message can't be serialized.
+     */
+    static FrozenMessage freeze(UnifiedPushMessage unifiedPushMessage) {
+        final String json = unifiedPushMessage.toJsonString();
+        if (json == null || INVALID_JSON.equals(json)) {
+            throw new IllegalArgumentException("The message could not be serialized to JSON");
+        }
+        return new FrozenMessage(json.getBytes(UTF_8), unifiedPushMessage);
+    }
+
+    /**
+     * Splits this message like {@link UnifiedMessage#shard(int)}. Messages rendered from a {@link MessageTemplate}
+     * are not split.
+     *
+     * @param maxCriteriaSize Maximum number of aliases and variants per shard.
+     * @return the shards, only this message if its criteria are within the limit
+     * @throws IllegalArgumentException when a shard can't be serialized.
+     */
+    public List<FrozenMessage> shard(int maxCriteriaSize) {
+        if (source == null) {
+            if (maxCriteriaSize < 1) {
+                throw new IllegalArgumentException("maxCriteriaSize must be greater than zero");
+            }
+            return Collections.singletonList(this);
+        }
+        return UnifiedMessage.shard(source, maxCriteriaSize, () -> this);
+    }
+
+    /**
+     * @return the length of the encoded payload in bytes
+     */
+    public int size() {
+        return payload.length;
+    }
+
+    /**
+     * Writes the encoded payload to the given stream.
+     *
+     * @param out The stream.
+     * @throws IOException when writing to the stream failed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(payload);
+    }
+
+    /**
+     * Returns the UTF-8 encoded JSON payload without copying it, for senders writing it to the wire. It is shared by
+     * all callers and must not be modified, use {@link #toByteArray()} to get a copy.
+     *
+     * @return the UTF-8 encoded JSON payload
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return a copy of the UTF-8 encoded JSON payload
+     */
+    public byte[] toByteArray() {
+        return payload.clone();
+    }
+
+    /**
+     * @return the JSON payload
+     */
+    public String toJsonString() {
+        return new String(payload, UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof FrozenMessage && Arrays.equals(payload, ((FrozenMessage) o).payload));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(payload);
+    }
+
+    @Override
+    public String toString() {
+        return "FrozenMessage{" + toJsonString() + '}';
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link UnifiedMessage} with named {@code ${placeholder}} slots, rendered into personalized {@link FrozenMessage}s.
+ * <p>
+ * Placeholders are recognized in the alert, the string values of the user data, the APNs title and the aliases of
+ * the criteria. The template is serialized once and split into pre-encoded JSON segments, rendering only escapes
+ * the values and splices them between the segments, without serializing the message again:
+ *
+ * <pre>
+ * {@code
+ *     MessageTemplate template = MessageTemplate.of(UnifiedMessage.withMessage()
+ *             .alert("Hello ${name}!")
+ *             .criteria()
+ *                  .aliases("${alias}")
+ *             .build());
+ *
+ *     Map<String, String> values = new HashMap<>();
+ *     values.put("name", "Mike");
+ *     values.put("alias", "mike@example.com");
+ *     pushSender.send(template.render(values));
+ * }
+ * </pre>
+ *
+ * Templates are immutable and can be rendered from multiple threads.
+ */
+public final class MessageTemplate {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_.\\-]+)\\}");
+
+    /**
+     * Marks the slots in the serialized skeleton, a private use character the JSON serializer doesn't escape.
+     */
+    private static final char SLOT_MARKER = '\uE000';
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(UTF_8);
+
+    private final byte[][] segments;
+    private final String[] slots;
+    private final Set<String> placeholders;
+    private final int segmentsLength;
+
+    private MessageTemplate(byte[][] segments, String[] slots) {
+        this.segments = segments;
+        this.slots = slots;
+        this.placeholders = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(slots)));
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.segmentsLength = length;
+    }
+
+    /**
+     * Parses the placeholders of the given message and serializes it into the template skeleton.
+     *
+     * @param unifiedMessage The message containing the placeholders.
+     * @return the {@link MessageTemplate}
+     * @throws IllegalArgumentException when the message can't be serialized or contains the character U+E000.
+     */
+    public static MessageTemplate of(UnifiedMessage unifiedMessage) {
+        if (unifiedMessage == null) {
+            throw new IllegalArgumentException("unifiedMessage can not be null");
+        }
+        // a marker anywhere in the skeleton, not only in the marked values, would be taken for a slot by split
+        if (unifiedMessage.freeze().toJsonString().indexOf(SLOT_MARKER) >= 0) {
+            throw new IllegalArgumentException("Templates must not contain the character U+E000");
+        }
+        final UnifiedPushMessage source = unifiedMessage.getObject();
+        final List<String> slots = new ArrayList<String>();
+
+        final UnifiedPushMessage skeleton = new UnifiedPushMessage();
+        if (source.getMessage() != null) {
+            final Message message = Snapshot.copy(source.getMessage());
+            message.setAlert(mark(message.getAlert(), slots));
+            if (message.getUserData() != null) {
+                final Map<String, Object> userData = new LinkedHashMap<String, Object>();
+                for (Map.Entry<String, Object> entry : message.getUserData().entrySet()) {
+                    userData.put(entry.getKey(), entry.getValue() instanceof String
+                            ? mark((String) entry.getValue(), slots) : entry.getValue());
+                }
+                message.setUserData(userData);
+            }
+            if (message.getApns() != null) {
+                message.getApns().setTitle(mark(message.getApns().getTitle(), slots));
+            }
+            skeleton.setMessage(message);
+        }
+        if (source.getConfig() != null) {
+            skeleton.setConfig(Snapshot.copy(source.getConfig()));
+        }
+        if (source.getCriteria() != null) {
+            final Criteria criteria = Snapshot.copy(source.getCriteria());
+            if (criteria.getAliases() != null) {
+                final List<String> aliases = new ArrayList<String>(criteria.getAliases().size());
+                for (String alias : criteria.getAliases()) {
+                    aliases.add(mark(alias, slots));
+                }
+                criteria.setAliases(aliases);
+            }
+            skeleton.setCriteria(criteria);
+        }
+
+        return split(FrozenMessage.freeze(skeleton).toJsonString(), slots);
+    }
+
+    /**
+     * @return the names of the placeholders of this template
+     */
+    public Set<String> getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * Renders the template, replacing every placeholder with its value.
+     *
+     * @param values The values of the placeholders.
+     * @return the rendered {@link FrozenMessage}
+     * @throws IllegalArgumentException when the value of a placeholder is missing.
+     */
+    public FrozenMessage render(Map<String, String> values) {
+        final String[] resolved = new String[slots.length];
+        int capacity = segmentsLength;
+        for (int i = 0; i < slots.length; i++) {
+            resolved[i] = values.get(slots[i]);
+            if (resolved[i] == null) {
+                throw new IllegalArgumentException("No value given for placeholder '" + slots[i] + "'");
+            }
+            capacity += resolved[i].length();
+        }
+
+        final PayloadBuffer payload = new PayloadBuffer(capacity);
+        payload.write(segments[0]);
+        for (int i = 0; i < slots.length; i++) {
+            payload.writeEscaped(resolved[i]);
+            payload.write(segments[i + 1]);
+        }
+        return new FrozenMessage(payload.toByteArray());
+    }
+
+    /**
+     * Replaces the placeholders of the given value with slot markers, collecting their names.
+     */
+    private static String mark(String value, List<String> slots) {
+        if (value == null) {
+            return null;
+        }
+        final Matcher matcher = PLACEHOLDER.matcher(value);
+        final StringBuffer marked = new StringBuffer(value.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(marked, Matcher.quoteReplacement(SLOT_MARKER + Integer.toString(slots.size()) + SLOT_MARKER));
+            slots.add(matcher.group(1));
+        }
+        matcher.appendTail(marked);
+        return marked.toString();
+    }
+
+    /**
+     * Splits the serialized skeleton at its slot markers into encoded segments.
+     */
+    private static MessageTemplate split(String json, List<String> slots) {
+        final byte[][] segments = new byte[slots.size() + 1][];
+        final String[] orderedSlots = new String[slots.size()];
+        int segmentStart = 0;
+        for (int i = 0; i < orderedSlots.length; i++) {
+            final int markerStart = json.indexOf(SLOT_MARKER, segmentStart);
+            final int markerEnd = json.indexOf(SLOT_MARKER, markerStart + 1);
+            segments[i] = json.substring(segmentStart, markerStart).getBytes(UTF_8);
+            orderedSlots[i] = slots.get(Integer.parseInt(json.substring(markerStart + 1, markerEnd)));
+            segmentStart = markerEnd + 1;
+        }
+        segments[orderedSlots.length] = json.substring(segmentStart).getBytes(UTF_8);
+        return new MessageTemplate(segments, orderedSlots);
+    }
+
+    /**
+     * Growable byte array encoding the values as UTF-8 JSON string content.
+     */
+    private static final class PayloadBuffer {
+
+        private byte[] buffer;
+        private int count;
+
+        private PayloadBuffer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+
+        private void writeEscaped(String value) {
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                // at most 6 bytes per char, for an escaped control character
+                ensureCapacity(6);
+                if (c == '"' || c == '\\') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = (byte) c;
+                } else if (c < 0x20) {
+                    writeControl(c);
+                } else if (c < 0x80) {
+                    buffer[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[count++] = (byte) (0xc0 | (c >> 6));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, can't be encoded
+                    buffer[count++] = '?';
+                } else {
+                    buffer[count++] = (byte) (0xe0 | (c >> 12));
+                    buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        private void writeControl(char c) {
+            buffer[count++] = '\\';
+            switch (c) {
+                case '\n':
+                    buffer[count++] = 'n';
+                    break;
+                case '\r':
+                    buffer[count++] = 'r';
+                    break;
+                case '\t':
+                    buffer[count++] = 't';
+                    break;
+                case '\b':
+                    buffer[count++] = 'b';
+                    break;
+                case '\f':
+                    buffer[count++] = 'f';
+                    break;
+                default:
+                    buffer[count++] = 'u';
+                    buffer[count++] = '0';
+                    buffer[count++] = '0';
+                    buffer[count++] = HEX[c >> 4];
+                    buffer[count++] = HEX[c & 0xf];
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jboss.aerogear.unifiedpush.message.apns.APNs;
+
+/**
+ * Read-only variants of the push model classes, making up the snapshot taken when a {@link UnifiedMessage} is built.
+ * Their setters throw an {@link UnsupportedOperationException} once they are copied, and their collections, including
+ * the nested ones of the user data, are unmodifiable copies.
+ * <p>
+ * The same copy methods also make modifiable copies, e.g. for the skeleton of a {@link MessageTemplate}, so that a
+ * field added to the model only has to be copied in one place.
+ */
+final class Snapshot {
+
+    private Snapshot() {
+    }
+
+    /**
+     * Takes the snapshot of the given parts, which may be {@code null}.
+     */
+    static UnifiedPushMessage of(Message message, Config config, Criteria criteria) {
+        return new SnapshotUnifiedPushMessage(message, config, criteria);
+    }
+
+    /**
+     * Copies the given user data value, nested maps and collections become unmodifiable copies.
+     */
+    static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            final Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof Set) {
+            final Set<Object> copy = new LinkedHashSet<Object>();
+            for (Object element : (Set<?>) value) {
+                copy.add(copyValue(element));
+            }
+            return Collections.unmodifiableSet(copy);
+        }
+        if (value instanceof Collection) {
+            final List<Object> copy = new ArrayList<Object>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                copy.add(copyValue(element));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        if (value instanceof Object[]) {
+            final Object[] copy = ((Object[]) value).clone();
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = copyValue(copy[i]);
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Copies the given message into a modifiable one, its collections are unmodifiable.
+     */
+    static Message copy(Message message) {
+        return copy(message, false);
+    }
+
+    /**
+     * Copies the given config into a modifiable one.
+     */
+    static Config copy(Config config) {
+        return copy(config, false);
+    }
+
+    /**
+     * Copies the given criteria into a modifiable one, its lists are unmodifiable.
+     */
+    static Criteria copy(Criteria criteria) {
+        return copy(criteria, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message copy(Message message, boolean readOnly) {
+        final Message copy = readOnly ? new SnapshotMessage() : new Message();
+        copy.setAlert(message.getAlert());
+        copy.setSound(message.getSound());
+        copy.setBadge(message.getBadge());
+        copy.setSimplePush(message.getSimplePush());
+        copy.setConsolidationKey(message.getConsolidationKey());
+        copy.setPriority(message.getPriority());
+        copy.setUserData((Map<String, Object>) copyValue(message.getUserData()));
+        copy.setApns(message.getApns() == null ? null : copy(message.getApns(), readOnly));
+        return readOnly ? ((SnapshotMessage) copy).seal() : copy;
+    }
+
+    private static APNs copy(APNs apns, boolean readOnly) {
+        final APNs copy = readOnly ? new SnapshotAPNs() : new APNs();
+        copy.setActionCategory(apns.getActionCategory());
+        copy.setTitle(apns.getTitle());
+        copy.setAction(apns.getAction());
+        copy.setContentAvailable(apns.isContentAvailable());
+        copy.setMutableContent(apns.hasMutableContent());
+        copy.setUrlArgs(copy(apns.getUrlArgs()));
+        copy.setLocalizedTitleKey(apns.getLocalizedTitleKey());
+        copy.setLocalizedTitleArguments(copy(apns.getLocalizedTitleArguments()));
+        copy.setLocalizedKey(apns.getLocalizedKey());
+        copy.setLocalizedArguments(copy(apns.getLocalizedArguments()));
+        return readOnly ? ((SnapshotAPNs) copy).seal() : copy;
+    }
+
+    private static Config copy(Config config, boolean readOnly) {
+        final Config copy = readOnly ? new SnapshotConfig() : new Config();
+        copy.setTimeToLive(config.getTimeToLive());
+        return readOnly ? ((SnapshotConfig) copy).seal() : copy;
+    }
+
+    private static Criteria copy(Criteria criteria, boolean readOnly) {
+        final Criteria copy = readOnly ? new SnapshotCriteria() : new Criteria();
+        copy.setAliases(copy(criteria.getAliases()));
+        copy.setVariants(copy(criteria.getVariants()));
+        copy.setCategories(copy(criteria.getCategories()));
+        copy.setDeviceTypes(copy(criteria.getDeviceTypes()));
+        return readOnly ? ((SnapshotCriteria) copy).seal() : copy;
+    }
+
+    private static List<String> copy(List<String> list) {
+        return list == null ? null : Collections.unmodifiableList(new ArrayList<String>(list));
+    }
+
+    private static String[] copy(String[] array) {
+        return array == null ? null : array.clone();
+    }
+
+    private static void checkNotSealed(boolean sealed) {
+        if (sealed) {
+            throw readOnly();
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The message has been built and can't be modified");
+    }
+
+    private static final class SnapshotUnifiedPushMessage extends UnifiedPushMessage {
+
+        private static final long serialVersionUID = 1L;
+
+        private SnapshotUnifiedPushMessage(Message message, Config config, Criteria criteria) {
+            // missing parts are replaced with read-only copies of the defaults of UnifiedPushMessage
+            final Message snapshotMessage = message != null ? message : getMessage();
+            final Config snapshotConfig = config != null ? config : getConfig();
+            final Criteria snapshotCriteria = criteria != null ? criteria : getCriteria();
+            super.setMessage(snapshotMessage == null ? null : copy(snapshotMessage, true));
+            super.setConfig(snapshotConfig == null ? null : copy(snapshotConfig, true));
+            super.setCriteria(snapshotCriteria == null ? null : copy(snapshotCriteria, true));
+        }
+
+        @Override
+        public void setCriteria(Criteria criteria) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setConfig(Config config) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setMessage(Message message) {
+            throw readOnly();
+        }
+    }
+
+    private static final class SnapshotMessage extends Message {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean sealed;
+
+        private SnapshotMessage seal() {
+            sealed = true;
+            return this;
+        }
+
+        @Override
+        public void setAlert(String alert) {
+            checkNotSealed(sealed);
+            super.setAlert(alert);
+        }
+
+        @Override
+        public void setSound(String sound) {
+            checkNotSealed(sealed);
+            super.setSound(sound);
+        }
+
+        @Override
+        public void setBadge(int badge) {
+            checkNotSealed(sealed);
+            super.setBadge(badge);
+        }
+
+        @Override
+        public void setUserData(Map<String, Object> userData) {
+            checkNotSealed(sealed);
+            super.setUserData(userData);
+        }
+
+        @Override
+        public void setSimplePush(String simplePush) {
+            checkNotSealed(sealed);
+            super.setSimplePush(simplePush);
+        }
+
+        @Override
+        public void setConsolidationKey(String consolidationKey) {
+            checkNotSealed(sealed);
+            super.setConsolidationKey(consolidationKey);
+        }
+
+        @Override
+        public void setApns(APNs apns) {
+            checkNotSealed(sealed);
+            super.setApns(apns);
+        }
+
+        @Override
+        public void setPriority(Priority priority) {
+            checkNotSealed(sealed);
+            super.setPriority(priority);
+        }
+    }
+
+    private static final class SnapshotAPNs extends APNs {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean sealed;
+
+        private SnapshotAPNs seal() {
+            sealed = true;
+            return this;
+        }
+
+        @Override
+        public String[] getUrlArgs() {
+            return copy(super.getUrlArgs());
+        }
+
+        @Override
+        public String[] getLocalizedTitleArguments() {
+            return copy(super.getLocalizedTitleArguments());
+        }
+
+        @Override
+        public String[] getLocalizedArguments() {
+            return copy(super.getLocalizedArguments());
+        }
+
+        @Override
+        public void setActionCategory(String actionCategory) {
+            checkNotSealed(sealed);
+            super.setActionCategory(actionCategory);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            checkNotSealed(sealed);
+            super.setTitle(title);
+        }
+
+        @Override
+        public void setAction(String action) {
+            checkNotSealed(sealed);
+            super.setAction(action);
+        }
+
+        @Override
+        public void setContentAvailable(boolean contentAvailable) {
+            checkNotSealed(sealed);
+            super.setContentAvailable(contentAvailable);
+        }
+
+        @Override
+        public void setMutableContent(boolean mutableContent) {
+            checkNotSealed(sealed);
+            super.setMutableContent(mutableContent);
+        }
+
+        @Override
+        public void setUrlArgs(String[] urlArgs) {
+            checkNotSealed(sealed);
+            super.setUrlArgs(urlArgs);
+        }
+
+        @Override
+        public void setLocalizedTitleKey(String localizedTitleKey) {
+            checkNotSealed(sealed);
+            super.setLocalizedTitleKey(localizedTitleKey);
+        }
+
+        @Override
+        public void setLocalizedTitleArguments(String[] localizedTitleArguments) {
+            checkNotSealed(sealed);
+            super.setLocalizedTitleArguments(localizedTitleArguments);
+        }
+
+        @Override
+        public void setLocalizedKey(String localizedKey) {
+            checkNotSealed(sealed);
+            super.setLocalizedKey(localizedKey);
+        }
+
+        @Override
+        public void setLocalizedArguments(String[] localizedArguments) {
+            checkNotSealed(sealed);
+            super.setLocalizedArguments(localizedArguments);
+        }
+    }
+
+    private static final class SnapshotConfig extends Config {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean sealed;
+
+        private SnapshotConfig seal() {
+            sealed = true;
+            return this;
+        }
+
+        @Override
+        public void setTimeToLive(int timeToLive) {
+            checkNotSealed(sealed);
+            super.setTimeToLive(timeToLive);
+        }
+    }
+
+    private static final class SnapshotCriteria extends Criteria {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean sealed;
+
+        private SnapshotCriteria seal() {
+            sealed = true;
+            return this;
+        }
+
+        @Override
+        public void setAliases(List<String> aliases) {
+            checkNotSealed(sealed);
+            super.setAliases(aliases);
+        }
+
+        @Override
+        public void setDeviceTypes(List<String> deviceTypes) {
+            checkNotSealed(sealed);
+            super.setDeviceTypes(deviceTypes);
+        }
+
+        @Override
+        public void setCategories(List<String> categories) {
+            checkNotSealed(sealed);
+            super.setCategories(categories);
+        }
+
+        @Override
+        public void setVariants(List<String> variants) {
+            checkNotSealed(sealed);
+            super.setVariants(variants);
+        }
+    }
+}
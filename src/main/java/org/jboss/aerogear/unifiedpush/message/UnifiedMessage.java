@@ -19,10 +19,12 @@ package org.jboss.aerogear.unifiedpush.message;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import org.jboss.aerogear.unifiedpush.message.apns.APNs;
 
 /**
@@ -46,13 +48,17 @@ import org.jboss.aerogear.unifiedpush.message.apns.APNs;
  *             .build();
  * }
  * </pre>
+ * <p>
+ * {@code build()} takes an immutable snapshot of the builders, so a UnifiedMessage can be shared and sent from
+ * multiple threads. Changes made to the builders afterwards only affect the messages built after them.
  */
 public class UnifiedMessage {
 
-    private final UnifiedPushMessage unifiedPushMessage = new UnifiedPushMessage();
+    private final UnifiedPushMessage unifiedPushMessage;
     private final MessageBuilder message;
     private final CriteriaBuilder criteria;
     private final ConfigBuilder config;
+    private volatile FrozenMessage frozenMessage;
 
     public static MessageBuilder withMessage() {
         return new Builder().message();
@@ -524,31 +530,121 @@ public class UnifiedMessage {
         criteria = builder.criteriaBuilder;
         config = builder.configBuilder;
         message = builder.messageBuilder;
+
+        unifiedPushMessage = Snapshot.of(message != null ? message.getObject() : null,
+                config != null ? config.getObject() : null,
+                criteria != null ? criteria.getObject() : null);
     }
 
+    /**
+     * @return the builder this message has been built with, changing it doesn't affect this message
+     */
     public MessageBuilder getMessage() {
         return message;
     }
 
+    /**
+     * @return the builder this message has been built with, changing it doesn't affect this message
+     */
     public CriteriaBuilder getCriteria() {
         return criteria;
 
     }
 
+    /**
+     * @return the builder this message has been built with, changing it doesn't affect this message
+     */
     public ConfigBuilder getConfig() {
         return config;
     }
 
+    /**
+     * Returns the snapshot taken when this message was built. It is shared by all callers and can't be modified, its
+     * setters throw an {@link UnsupportedOperationException} and its collections, including the nested collections of
+     * the user data, are unmodifiable.
+     *
+     * @return the {@link UnifiedPushMessage} sent to the UnifiedPush Server
+     */
     public UnifiedPushMessage getObject() {
-        if (message != null) {
-            unifiedPushMessage.setMessage(message.getObject());
+        return unifiedPushMessage;
+    }
+
+    /**
+     * Serializes this message into an immutable {@link FrozenMessage}, which can be sent repeatedly without being
+     * serialized again.
+     *
+     * @return the {@link FrozenMessage}
+     * @throws IllegalArgumentException when the message can't be serialized.
+     */
+    public FrozenMessage freeze() {
+        // the message is immutable, racing threads would serialize it to the same payload
+        FrozenMessage frozen = frozenMessage;
+        if (frozen == null) {
+            frozen = FrozenMessage.of(this);
+            frozenMessage = frozen;
+        }
+        return frozen;
+    }
+
+    /**
+     * Splits this message into frozen messages whose aliases and variants criteria hold at most
+     * {@code maxCriteriaSize} entries each. When both criteria exceed the limit, every chunk of aliases is combined
+     * with every chunk of variants, so the shards target the same installations as this message.
+     *
+     * @param maxCriteriaSize Maximum number of aliases and variants per shard.
+     * @return the shards, only the {@link #freeze() frozen} message if its criteria are within the limit
+     * @throws IllegalArgumentException when the message can't be serialized.
+     */
+    public List<FrozenMessage> shard(int maxCriteriaSize) {
+        return shard(unifiedPushMessage, maxCriteriaSize, this::freeze);
+    }
+
+    /**
+     * Splits the given snapshot like {@link #shard(int)}.
+     *
+     * @param unsharded Supplies the frozen snapshot, returned if its criteria are within the limit.
+     */
+    static List<FrozenMessage> shard(UnifiedPushMessage unifiedPushMessage, int maxCriteriaSize, Supplier<FrozenMessage> unsharded) {
+        if (maxCriteriaSize < 1) {
+            throw new IllegalArgumentException("maxCriteriaSize must be greater than zero");
+        }
+        final Criteria criteria = unifiedPushMessage.getCriteria();
+        final List<List<String>> aliasChunks = partition(criteria == null ? null : criteria.getAliases(), maxCriteriaSize);
+        final List<List<String>> variantChunks = partition(criteria == null ? null : criteria.getVariants(), maxCriteriaSize);
+        if (aliasChunks.size() == 1 && variantChunks.size() == 1) {
+            return Collections.singletonList(unsharded.get());
+        }
+
+        final List<FrozenMessage> shards = new ArrayList<FrozenMessage>(aliasChunks.size() * variantChunks.size());
+        for (List<String> aliases : aliasChunks) {
+            for (List<String> variants : variantChunks) {
+                // the snapshot is immutable, the shards share everything but the sharded criteria
+                final Criteria shardCriteria = new Criteria();
+                shardCriteria.setAliases(aliases);
+                shardCriteria.setVariants(variants);
+                shardCriteria.setCategories(criteria.getCategories());
+                shardCriteria.setDeviceTypes(criteria.getDeviceTypes());
+
+                final UnifiedPushMessage shard = new UnifiedPushMessage();
+                shard.setMessage(unifiedPushMessage.getMessage());
+                shard.setConfig(unifiedPushMessage.getConfig());
+                shard.setCriteria(shardCriteria);
+                shards.add(FrozenMessage.freeze(shard));
+            }
         }
-        if (config != null) {
-            unifiedPushMessage.setConfig(config.getObject());
+        return shards;
+    }
+
+    private static List<List<String>> partition(List<String> values, int size) {
+        if (values == null || values.size() <= size) {
+            return Collections.singletonList(values);
         }
-        if (criteria != null) {
-            unifiedPushMessage.setCriteria(criteria.getObject());
+        final List<List<String>> chunks = new ArrayList<List<String>>((values.size() + size - 1) / size);
+        for (int from = 0; from < values.size(); from += size) {
+            // copied, the shards keep their criteria and a view would keep the whole list reachable from each shard
+            chunks.add(Collections.unmodifiableList(
+                    new ArrayList<String>(values.subList(from, Math.min(from + size, values.size())))));
         }
-        return unifiedPushMessage;
+        return chunks;
     }
 }
@@ -16,7 +16,10 @@
  */
 package org.jboss.aerogear.unifiedpush.model;
 
+import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 public class ProxyConfig {
 
@@ -30,6 +33,9 @@ public class ProxyConfig {
 
     private Proxy.Type proxyType;
 
+    // derived from the settings above on first use, reset whenever they change
+    private transient volatile String proxyAuthorization;
+
     public ProxyConfig() {
 
     }
@@ -40,22 +46,27 @@ public class ProxyConfig {
 
     public void setProxyHost(String proxyHost) {
         this.proxyHost = proxyHost;
+        reset();
     }
 
     public void setProxyPort(int proxyPort) {
         this.proxyPort = proxyPort;
+        reset();
     }
 
     public void setProxyUser(String proxyUser) {
         this.proxyUser = proxyUser;
+        reset();
     }
 
     public void setProxyPassword(String proxyPassword) {
         this.proxyPassword = proxyPassword;
+        reset();
     }
 
     public void setProxyType(Proxy.Type proxyType) {
         this.proxyType = proxyType;
+        reset();
     }
 
     /**
@@ -102,4 +113,37 @@ public class ProxyConfig {
     public Proxy.Type getProxyType() {
         return proxyType;
     }
+
+    /**
+     * Creates a {@link Proxy} to open connections through, resolving the address of the proxy host. Senders reuse it
+     * through {@link org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil.ConnectionSettings#getProxy(ProxyConfig)}.
+     *
+     * @return A {@link Proxy}
+     */
+    public Proxy toProxy() {
+        return new Proxy(proxyType, new InetSocketAddress(proxyHost, proxyPort));
+    }
+
+    /**
+     * Get the value of the {@code Proxy-Authorization} header authenticating the proxy user with basic
+     * authentication. The value is computed once and reused by every request.
+     *
+     * @return The header value or {@code null} if no proxy user is configured
+     */
+    public String getProxyAuthorization() {
+        if (proxyUser == null) {
+            return null;
+        }
+        String current = proxyAuthorization;
+        if (current == null) {
+            final String credentials = proxyUser + ':' + (proxyPassword == null ? "" : proxyPassword);
+            current = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+            proxyAuthorization = current;
+        }
+        return current;
+    }
+
+    private void reset() {
+        proxyAuthorization = null;
+    }
 }
@@ -0,0 +1,52 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+/**
+ * Describes how connections to the UnifiedPush Server are handled.
+ */
+public enum ConnectionMode {
+
+    /**
+     * Every request opens a new {@link java.net.HttpURLConnection} which is torn down once the response is read.
+     */
+    SINGLE_SHOT,
+
+    /**
+     * Connections are kept alive and reused by subsequent requests to the same route.
+     *
+     * @see PooledTransport
+     */
+    POOLED,
+
+    /**
+     * Requests are sent through {@code java.net.http.HttpClient} without tying up a thread per request in flight.
+     * Requires Java 11 or later.
+     *
+     * @see HttpClientTransport
+     */
+    NON_BLOCKING,
+
+    /**
+     * Like {@link #NON_BLOCKING}, but negotiates HTTP/2 with the server, so concurrent requests are multiplexed over a
+     * single connection per host and their repeated headers are compressed. Falls back to HTTP/1.1 when the server
+     * doesn't support HTTP/2. Requires Java 11 or later.
+     *
+     * @see HttpClientTransport
+     */
+    HTTP2
+}
@@ -0,0 +1,64 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+
+/**
+ * Non-blocking {@link Transport} built on {@code java.net.http.HttpClient}.
+ * <p>
+ * The client is only available on Java 11 or later, where this class is replaced by the implementation shipped in
+ * {@code META-INF/versions/11} of the multi-release jar. On older runtimes it can't be instantiated.
+ */
+public class HttpClientTransport implements Transport {
+
+    public HttpClientTransport(ProxyConfig proxy, TrustStoreConfig customTrustStore,
+                               HttpRequestUtil.ConnectionSettings connectionSettings) {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    /**
+     * @return true if the running JVM provides {@code java.net.http.HttpClient}
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    @Override
+    public TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> postAsync(String url, String encodedCredentials, byte[] payload) {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // no-op
+    }
+}
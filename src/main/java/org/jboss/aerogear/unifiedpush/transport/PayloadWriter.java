@@ -0,0 +1,37 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a JSON payload incrementally to the body of a request, without holding the whole payload in memory.
+ * <p>
+ * The payload may be written more than once, e.g. when the request is redirected.
+ */
+@FunctionalInterface
+public interface PayloadWriter {
+
+    /**
+     * Writes the UTF-8 encoded JSON payload to the given stream. The stream must not be closed.
+     *
+     * @param out The request body.
+     * @throws IOException when writing to the stream failed.
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,760 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.jboss.aerogear.unifiedpush.ca.TrustStoreManagerService;
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.utils.GzipOutputStream;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+
+/**
+ * {@link Transport} keeping HTTP/1.1 connections alive and reusing them for subsequent requests to the same route,
+ * saving the TCP and TLS handshakes on every push.
+ * <p>
+ * The number of connections per route (scheme, host and port) is limited, connections idle for too long are evicted
+ * and, if configured, connections are retired once they reached their time to live.
+ */
+public class PooledTransport implements Transport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000;
+
+    private static final Logger logger = Logger.getLogger(PooledTransport.class.getName());
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Connections idle for longer than this are checked for being closed by the server before they get reused.
+     */
+    private static final long VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private static final long MIN_EVICTION_INTERVAL = 100;
+
+    private final ProxyConfig proxy;
+    private final TrustStoreConfig customTrustStore;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxConnectionsPerRoute;
+    private final long idleConnectionTimeout;
+    private final long connectionTimeToLive;
+    private final HttpRequestUtil.ConnectionSettings connectionSettings;
+    private final String proxyAuthorization;
+    private final ConcurrentMap<String, RoutePool> routes = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    public PooledTransport(ProxyConfig proxy, TrustStoreConfig customTrustStore,
+                           HttpRequestUtil.ConnectionSettings connectionSettings) {
+        this.proxy = proxy != null && proxy.getProxyHost() != null && proxy.getProxyType() != Proxy.Type.DIRECT ? proxy : null;
+        this.customTrustStore = customTrustStore;
+        this.connectTimeout = valueOrDefault(connectionSettings.getConnectTimeout(), 0);
+        this.readTimeout = valueOrDefault(connectionSettings.getReadTimeout(), 0);
+        this.maxConnectionsPerRoute = valueOrDefault(connectionSettings.getMaxConnectionsPerRoute(), DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        this.idleConnectionTimeout = valueOrDefault(connectionSettings.getIdleConnectionTimeout(), DEFAULT_IDLE_CONNECTION_TIMEOUT);
+        this.connectionTimeToLive = valueOrDefault(connectionSettings.getConnectionTimeToLive(), 0);
+        this.connectionSettings = connectionSettings;
+
+        if (maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerRoute must be greater than zero");
+        }
+
+        proxyAuthorization = this.proxy != null ? this.proxy.getProxyAuthorization() : null;
+    }
+
+    @Override
+    public TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception {
+        if (payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        return post(url, encodedCredentials, out -> out.write(payload), payload.length);
+    }
+
+    /**
+     * Streams the payload using chunked transfer encoding.
+     */
+    @Override
+    public TransportResponse postStreaming(String url, String encodedCredentials, PayloadWriter payload) throws Exception {
+        return post(url, encodedCredentials, payload, -1);
+    }
+
+    private TransportResponse post(String url, String encodedCredentials, PayloadWriter payload, long contentLength) throws Exception {
+        if (url == null || encodedCredentials == null || payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        if (connectionSettings.isCompressed(contentLength)) {
+            // the compressed length is only known once it has been written
+            return post(url, encodedCredentials, compress(payload), -1, true);
+        }
+        return post(url, encodedCredentials, payload, contentLength, false);
+    }
+
+    private TransportResponse post(String url, String encodedCredentials, PayloadWriter payload, long contentLength,
+                                   boolean compressed) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Transport has been closed");
+        }
+
+        final URL target = new URL(url);
+        final RoutePool pool = getRoutePool(target);
+
+        pool.acquire();
+        try {
+            PooledConnection connection = pool.lease();
+            if (connection != null) {
+                try {
+                    return exchange(pool, connection, true, target, encodedCredentials, payload, contentLength, compressed);
+                } catch (StaleConnectionException e) {
+                    // the server closed the kept alive connection without processing the request, try again on a fresh one
+                    logger.log(Level.FINE, "Pooled connection was closed by the server, retrying", e.getCause());
+                }
+            }
+            return exchange(pool, connect(target), false, target, encodedCredentials, payload, contentLength, compressed);
+        } finally {
+            pool.release();
+        }
+    }
+
+    /**
+     * Closes all pooled connections which have been idle for too long or have exceeded their time to live. Expired
+     * connections are otherwise only evicted when a connection of their route is leased or returned, so it should be
+     * run every {@link #getEvictionInterval()} ms, as {@code DefaultPushSender} does.
+     */
+    public void closeExpiredConnections() {
+        final long now = System.currentTimeMillis();
+        for (RoutePool pool : routes.values()) {
+            pool.evictExpired(now);
+        }
+    }
+
+    /**
+     * @return the interval in ms at which {@link #closeExpiredConnections()} should run, half of the idle connection
+     * timeout
+     */
+    public long getEvictionInterval() {
+        return Math.max(MIN_EVICTION_INTERVAL, idleConnectionTimeout / 2);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (RoutePool pool : routes.values()) {
+            pool.closeIdle();
+        }
+        routes.clear();
+    }
+
+    private RoutePool getRoutePool(URL target) {
+        final String route = (target.getProtocol() + "://" + target.getHost() + ':' + port(target)).toLowerCase(Locale.ROOT);
+        RoutePool pool = routes.get(route);
+        if (pool == null) {
+            final RoutePool created = new RoutePool(route);
+            pool = routes.putIfAbsent(route, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Sends the request and reads the response.
+     * <p>
+     * A reused connection may have been closed by the server while it was idle. Only if writing the request fails or
+     * the server closes the connection without sending a single byte of the response, the request is known not to
+     * have been processed and a {@link StaleConnectionException} is thrown, so it can be sent again. Any other failure,
+     * like a read timeout, is propagated as the request may have been delivered.
+     */
+    private TransportResponse exchange(RoutePool pool, PooledConnection connection, boolean reused, URL target,
+                                       String encodedCredentials, PayloadWriter payload, long contentLength,
+                                       boolean compressed) throws IOException {
+        boolean reusable = false;
+        try {
+            try {
+                writeRequest(connection, target, encodedCredentials, payload, contentLength, compressed);
+            } catch (IOException e) {
+                if (reused) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+
+            String statusLine = readLine(connection.in);
+            if (statusLine == null) {
+                final EOFException eof = new EOFException("Connection closed by the server before receiving a response");
+                if (reused) {
+                    throw new StaleConnectionException(eof);
+                }
+                throw eof;
+            }
+
+            int statusCode;
+            Map<String, String> headers;
+            while (true) {
+                statusCode = parseStatusCode(statusLine);
+                headers = readHeaders(connection.in);
+                if (statusCode >= 200) {
+                    break;
+                }
+                // interim response, the final one follows
+                statusLine = readLine(connection.in);
+                if (statusLine == null) {
+                    throw new EOFException("Connection closed by the server before receiving a final response");
+                }
+            }
+
+            reusable = consumeBody(connection.in, statusCode, headers) && isKeepAlive(statusLine, headers);
+            return new TransportResponse(statusCode, headers);
+        } finally {
+            if (reusable && !closed) {
+                pool.offer(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the request, using chunked transfer encoding if the content length is negative.
+     */
+    private void writeRequest(PooledConnection connection, URL target, String encodedCredentials, PayloadWriter payload,
+                              long contentLength, boolean compressed) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(connection.absoluteForm ? target.toExternalForm() : requestTarget(target)).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(hostHeader(target)).append("\r\n");
+        head.append("Authorization: Basic ").append(encodedCredentials).append("\r\n");
+        head.append("Content-Type: application/json\r\n");
+        if (compressed) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        head.append("Accept: application/json, text/plain\r\n");
+        // custom header, for UPS
+        head.append("aerogear-sender: AeroGear Java Sender\r\n");
+        if (connection.absoluteForm && proxyAuthorization != null) {
+            head.append("Proxy-Authorization: ").append(proxyAuthorization).append("\r\n");
+        }
+        if (contentLength < 0) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        head.append("\r\n");
+
+        connection.out.write(head.toString().getBytes(ASCII));
+        if (contentLength < 0) {
+            final ChunkedOutputStream chunked = new ChunkedOutputStream(connection.out);
+            payload.writeTo(chunked);
+            chunked.finish();
+        } else {
+            payload.writeTo(connection.out);
+        }
+        connection.out.flush();
+    }
+
+    /**
+     * Compresses the payload while it is written, without closing the connection's stream.
+     */
+    private static PayloadWriter compress(PayloadWriter payload) {
+        return out -> {
+            final GzipOutputStream gzip = new GzipOutputStream(out);
+            try {
+                payload.writeTo(gzip);
+                gzip.finish();
+            } finally {
+                // returns the deflater when the payload failed to be written
+                gzip.discard();
+            }
+        };
+    }
+
+    private PooledConnection connect(URL target) throws IOException {
+        final String host = target.getHost();
+        final int port = port(target);
+        final boolean secure = "https".equalsIgnoreCase(target.getProtocol());
+        final boolean viaHttpProxy = proxy != null && proxy.getProxyType() == Proxy.Type.HTTP;
+
+        Socket socket = null;
+        try {
+            if (proxy == null) {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            } else if (viaHttpProxy) {
+                socket = new Socket();
+                socket.connect(connectionSettings.getProxy(proxy).address(), connectTimeout);
+            } else {
+                socket = new Socket(connectionSettings.getProxy(proxy));
+                socket.connect(InetSocketAddress.createUnresolved(host, port), connectTimeout);
+            }
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeout);
+
+            if (secure) {
+                if (viaHttpProxy) {
+                    tunnel(socket, host, port);
+                }
+                final SSLSocket sslSocket = (SSLSocket) getSSLSocketFactory().createSocket(socket, host, port, true);
+                final SSLParameters sslParameters = sslSocket.getSSLParameters();
+                sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(sslParameters);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            return new PooledConnection(socket, viaHttpProxy && !secure);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Establishes a tunnel through the HTTP proxy to the given host.
+     */
+    private void tunnel(Socket socket, String host, int port) throws IOException {
+        final StringBuilder connect = new StringBuilder(128);
+        connect.append("CONNECT ").append(host).append(':').append(port).append(" HTTP/1.1\r\n");
+        connect.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        if (proxyAuthorization != null) {
+            connect.append("Proxy-Authorization: ").append(proxyAuthorization).append("\r\n");
+        }
+        connect.append("\r\n");
+
+        final OutputStream out = socket.getOutputStream();
+        out.write(connect.toString().getBytes(ASCII));
+        out.flush();
+
+        // unbuffered, the TLS handshake has to start right after the proxy response
+        final InputStream in = socket.getInputStream();
+        final String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("Proxy closed the connection while establishing the tunnel");
+        }
+        readHeaders(in);
+        if (parseStatusCode(statusLine) != 200) {
+            throw new IOException("Unable to tunnel through proxy. Proxy returns \"" + statusLine + "\"");
+        }
+    }
+
+    private SSLSocketFactory getSSLSocketFactory() throws IOException {
+        if (customTrustStore == null || customTrustStore.getTrustStorePath() == null) {
+            return HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+        try {
+            return TrustStoreManagerService.getInstance().getSSLSocketFactory(customTrustStore);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not load the custom trustStore", e);
+        }
+    }
+
+    /**
+     * Reads the response body, if any, so the connection can be reused.
+     *
+     * @return true if the end of the body was reached without reading until the end of the stream
+     */
+    private static boolean consumeBody(InputStream in, int statusCode, Map<String, String> headers) throws IOException {
+        if (statusCode == 204 || statusCode == 304) {
+            return true;
+        }
+
+        final String transferEncoding = headers.get("transfer-encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            long chunkSize;
+            do {
+                final String chunkHeader = readLine(in);
+                if (chunkHeader == null) {
+                    throw new EOFException("Unexpected end of chunked response");
+                }
+                final int extension = chunkHeader.indexOf(';');
+                chunkSize = Long.parseLong((extension < 0 ? chunkHeader : chunkHeader.substring(0, extension)).trim(), 16);
+                skipFully(in, chunkSize);
+                if (chunkSize > 0) {
+                    readLine(in);
+                }
+            } while (chunkSize > 0);
+            // trailers
+            readHeaders(in);
+            return true;
+        }
+
+        final String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            skipFully(in, Long.parseLong(contentLength.trim()));
+            return true;
+        }
+
+        // body is delimited by the server closing the connection
+        final byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        return false;
+    }
+
+    private static boolean isKeepAlive(String statusLine, Map<String, String> headers) {
+        final String connection = headers.get("connection");
+        if (connection != null && connection.toLowerCase(Locale.ROOT).contains("close")) {
+            return false;
+        }
+        return statusLine.startsWith("HTTP/1.1")
+                || (connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive"));
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(length, 1024)];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of response body");
+            }
+            remaining -= read;
+        }
+    }
+
+    private static int parseStatusCode(String statusLine) throws IOException {
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + statusLine, e);
+        }
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        final Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            final int separator = line.indexOf(':');
+            if (separator > 0) {
+                headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Reads a CRLF terminated line.
+     *
+     * @return the line without the terminator or {@code null} if the end of the stream has been reached
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line exceeds " + MAX_LINE_LENGTH + " characters");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static String requestTarget(URL target) {
+        final String path = target.getPath();
+        final String query = target.getQuery();
+        return (path.isEmpty() ? "/" : path) + (query != null ? '?' + query : "");
+    }
+
+    private static String hostHeader(URL target) {
+        return target.getPort() == -1 || target.getPort() == target.getDefaultPort()
+                ? target.getHost() : target.getHost() + ':' + target.getPort();
+    }
+
+    private static int port(URL target) {
+        return target.getPort() != -1 ? target.getPort() : target.getDefaultPort();
+    }
+
+    private static int valueOrDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * The kept alive connections to a single route.
+     */
+    private final class RoutePool {
+
+        private final String route;
+        private final Semaphore permits = new Semaphore(maxConnectionsPerRoute, true);
+        private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+        // ConcurrentLinkedDeque.size() traverses the whole deque
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private RoutePool(String route) {
+            this.route = route;
+        }
+
+        private void acquire() throws IOException {
+            try {
+                if (connectTimeout > 0) {
+                    if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                        throw new SocketTimeoutException("Timeout waiting for a connection to " + route);
+                    }
+                } else {
+                    permits.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + route);
+            }
+        }
+
+        private void release() {
+            permits.release();
+        }
+
+        /**
+         * @return the most recently used connection still fit for reuse or {@code null} if there is none
+         */
+        private PooledConnection lease() {
+            final long now = System.currentTimeMillis();
+            PooledConnection connection;
+            while ((connection = pollIdle()) != null) {
+                if (connection.isExpired(now) || (now - connection.lastUsed > VALIDATE_AFTER_INACTIVITY && connection.isStale())) {
+                    connection.close();
+                } else {
+                    return connection;
+                }
+            }
+            return null;
+        }
+
+        private void offer(PooledConnection connection) {
+            final long now = System.currentTimeMillis();
+            connection.lastUsed = now;
+            if (idleCount.incrementAndGet() <= maxConnectionsPerRoute) {
+                idle.offerFirst(connection);
+            } else {
+                idleCount.decrementAndGet();
+                connection.close();
+            }
+            evictExpired(now);
+        }
+
+        private void evictExpired(long now) {
+            final Iterator<PooledConnection> connections = idle.descendingIterator();
+            while (connections.hasNext()) {
+                final PooledConnection connection = connections.next();
+                if (connection.isExpired(now) && idle.remove(connection)) {
+                    idleCount.decrementAndGet();
+                    connection.close();
+                }
+            }
+        }
+
+        private void closeIdle() {
+            PooledConnection connection;
+            while ((connection = pollIdle()) != null) {
+                connection.close();
+            }
+        }
+
+        private PooledConnection pollIdle() {
+            final PooledConnection connection = idle.pollFirst();
+            if (connection != null) {
+                idleCount.decrementAndGet();
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * A kept alive connection.
+     */
+    private final class PooledConnection {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final boolean absoluteForm;
+        private final long created = System.currentTimeMillis();
+        private long lastUsed = created;
+
+        private PooledConnection(Socket socket, boolean absoluteForm) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.absoluteForm = absoluteForm;
+        }
+
+        private boolean isExpired(long now) {
+            return now - lastUsed > idleConnectionTimeout
+                    || (connectionTimeToLive > 0 && now - created > connectionTimeToLive);
+        }
+
+        /**
+         * Checks whether the server closed the connection while it was idle.
+         */
+        private boolean isStale() {
+            try {
+                socket.setSoTimeout(1);
+                try {
+                    // EOF or unexpected data, either way the connection is not usable anymore
+                    in.read();
+                    return true;
+                } finally {
+                    socket.setSoTimeout(readTimeout);
+                }
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        private void close() {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Signals that a reused connection turned out to be closed before the request could have been processed.
+     */
+    private static final class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private StaleConnectionException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Encodes everything written to it as chunks of at most {@link #CHUNK_LENGTH} bytes.
+     * {@link #finish()} writes the last chunk, the underlying stream is never closed.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+
+        private static final int CHUNK_LENGTH = 8192;
+        private static final byte[] CRLF = {'\r', '\n'};
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[CHUNK_LENGTH];
+        private int count;
+
+        private ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                final int length = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // the connection outlives the request body
+        }
+
+        private void finish() throws IOException {
+            writeChunk();
+            out.write('0');
+            out.write(CRLF);
+            out.write(CRLF);
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.write(Integer.toHexString(count).getBytes(ASCII));
+            out.write(CRLF);
+            out.write(buffer, 0, count);
+            out.write(CRLF);
+            count = 0;
+        }
+    }
+}
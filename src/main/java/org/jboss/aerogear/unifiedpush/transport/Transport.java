@@ -0,0 +1,88 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used to deliver the payloads to the UnifiedPush Server.
+ * <p>
+ * Implementations can be plugged into the sender through
+ * {@link org.jboss.aerogear.unifiedpush.DefaultPushSender.Builder#transport(Transport)}. They must be thread safe.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * POSTs the given JSON payload to the given UnifiedPush Server URL.
+     *
+     * @param url The URL to use for the HTTP POST request.
+     * @param encodedCredentials The Base64 encoded credentials used for basic authentication.
+     * @param payload The UTF-8 encoded JSON payload.
+     * @return the {@link TransportResponse} returned by the server
+     * @throws Exception when the request could not be delivered.
+     */
+    TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception;
+
+    /**
+     * POSTs the JSON payload written by the given {@link PayloadWriter} to the given UnifiedPush Server URL. Transports
+     * supporting it stream the payload to the server using chunked transfer encoding, the default implementation
+     * buffers it and delegates to {@link #post(String, String, byte[])}.
+     *
+     * @param url The URL to use for the HTTP POST request.
+     * @param encodedCredentials The Base64 encoded credentials used for basic authentication.
+     * @param payload Writes the UTF-8 encoded JSON payload.
+     * @return the {@link TransportResponse} returned by the server
+     * @throws Exception when the request could not be delivered.
+     */
+    default TransportResponse postStreaming(String url, String encodedCredentials, PayloadWriter payload) throws Exception {
+        if (payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        payload.writeTo(buffer);
+        return post(url, encodedCredentials, buffer.toByteArray());
+    }
+
+    /**
+     * POSTs the given JSON payload to the given UnifiedPush Server URL, completing the returned future once the
+     * response has been received. Unless {@link #isNonBlocking()} returns true, this delegates to
+     * {@link #post(String, String, byte[])} and blocks the calling thread.
+     *
+     * @param url The URL to use for the HTTP POST request.
+     * @param encodedCredentials The Base64 encoded credentials used for basic authentication.
+     * @param payload The UTF-8 encoded JSON payload.
+     * @return a {@link CompletableFuture} completed with the {@link TransportResponse} returned by the server
+     */
+    default CompletableFuture<TransportResponse> postAsync(String url, String encodedCredentials, byte[] payload) {
+        final CompletableFuture<TransportResponse> response = new CompletableFuture<>();
+        try {
+            response.complete(post(url, encodedCredentials, payload));
+        } catch (Exception e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+     * @return true if {@link #postAsync(String, String, byte[])} returns without waiting for the response
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
+}
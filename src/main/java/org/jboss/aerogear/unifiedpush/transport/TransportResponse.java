@@ -0,0 +1,71 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The status code and headers of a response sent by the UnifiedPush Server.
+ */
+public class TransportResponse {
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+
+    /**
+     * @param statusCode The HTTP status code.
+     * @param headers The response headers, names are matched case insensitive.
+     */
+    public TransportResponse(int statusCode, Map<String, String> headers) {
+        this.statusCode = statusCode;
+        this.headers = new HashMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                this.headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param statusCode The HTTP status code.
+     */
+    public TransportResponse(int statusCode) {
+        this(statusCode, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Get the HTTP status code.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the value of the given response header.
+     *
+     * @param name The name of the header.
+     * @return the header value or {@code null} if not present
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+}
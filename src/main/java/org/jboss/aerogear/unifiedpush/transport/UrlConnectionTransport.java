@@ -0,0 +1,92 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+
+/**
+ * {@link Transport} opening a new {@link HttpURLConnection} for every request and disconnecting it afterwards.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    /**
+     * The response headers the sender acts on.
+     */
+    private static final String[] RESPONSE_HEADERS = {"Location", "Retry-After"};
+
+    private final ProxyConfig proxy;
+    private final TrustStoreConfig customTrustStore;
+    private final HttpRequestUtil.ConnectionSettings connectionSettings;
+
+    public UrlConnectionTransport(ProxyConfig proxy, TrustStoreConfig customTrustStore,
+                                  HttpRequestUtil.ConnectionSettings connectionSettings) {
+        this.proxy = proxy;
+        this.customTrustStore = customTrustStore;
+        this.connectionSettings = connectionSettings;
+    }
+
+    @Override
+    public TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception {
+        HttpURLConnection httpURLConnection = null;
+        try {
+            httpURLConnection = (HttpURLConnection) HttpRequestUtil.post(url, encodedCredentials, payload, proxy,
+                    customTrustStore, connectionSettings);
+            return readResponse(httpURLConnection);
+        } finally {
+            // tear down
+            if (httpURLConnection != null) {
+                httpURLConnection.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public TransportResponse postStreaming(String url, String encodedCredentials, PayloadWriter payload) throws Exception {
+        HttpURLConnection httpURLConnection = null;
+        try {
+            httpURLConnection = (HttpURLConnection) HttpRequestUtil.postStreaming(url, encodedCredentials, payload, proxy,
+                    customTrustStore, connectionSettings);
+            return readResponse(httpURLConnection);
+        } finally {
+            // tear down
+            if (httpURLConnection != null) {
+                httpURLConnection.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // no-op, connections are not kept around
+    }
+
+    private static TransportResponse readResponse(HttpURLConnection httpURLConnection) throws IOException {
+        final int statusCode = httpURLConnection.getResponseCode();
+        final Map<String, String> headers = new HashMap<>();
+        for (String name : RESPONSE_HEADERS) {
+            headers.put(name, httpURLConnection.getHeaderField(name));
+        }
+        return new TransportResponse(statusCode, headers);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+/**
+ * Concurrency limit adapting to the load of the server with additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * Every success grows the limit by {@code 1/limit}, i.e. by about one per round trip of the whole window, as long as
+ * its latency stays close to the lowest latency observed. Every overload signal, e.g. a 429 or 503 response or a
+ * timeout, cuts the limit by the backoff ratio. Requests started before the last cut were sent under the previous
+ * limit, their failures don't cut it again.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2;
+
+    /**
+     * Lets the lowest latency drift up slowly, so a lasting change of the baseline is eventually picked up.
+     */
+    private static final double MIN_LATENCY_DRIFT = 1.001;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private double minLatency = Double.MAX_VALUE;
+    private long lastDecrease;
+
+    /**
+     * @param minLimit The lowest limit, the limit starts at {@code maxLimit}.
+     * @param maxLimit The highest limit.
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_TOLERANCE);
+    }
+
+    /**
+     * @param minLimit The lowest limit, the limit starts at {@code maxLimit}.
+     * @param maxLimit The highest limit.
+     * @param backoffRatio The factor applied to the limit on overload, between 0 and 1.
+     * @param latencyTolerance How many times the lowest observed latency a request can take and still grow the limit.
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("limits must be greater than zero and minLimit not exceed maxLimit");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance can not be lower than 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Records a request accepted by the server.
+     *
+     * @param latency The time in ns the request took.
+     * @return the new limit
+     */
+    public synchronized int onSuccess(long latency) {
+        minLatency = Math.min(latency, minLatency * MIN_LATENCY_DRIFT);
+        if (latency <= minLatency * latencyTolerance) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        return getLimit();
+    }
+
+    /**
+     * Records a request rejected by the overloaded server.
+     *
+     * @param startTime The {@link System#nanoTime()} at which the request was started.
+     * @return the new limit
+     */
+    public synchronized int onOverload(long startTime) {
+        if (startTime - lastDecrease >= 0) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            lastDecrease = System.nanoTime();
+        }
+        return getLimit();
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+}
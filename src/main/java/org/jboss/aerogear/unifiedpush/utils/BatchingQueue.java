@@ -0,0 +1,211 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces single elements into batches. A batch is flushed once it holds {@code maxBatchSize} elements or
+ * {@code lingerTime} ms after its first element was added, whichever comes first. The future returned for every
+ * element completes with the outcome of the batch it was flushed with.
+ *
+ * @param <T> The type of the batched elements.
+ * @param <R> The type of the result of a flushed batch.
+ */
+public class BatchingQueue<T, R> implements Closeable {
+
+    private final int maxBatchSize;
+    private final long lingerTime;
+    private final Function<List<T>, ? extends CompletionStage<R>> flusher;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownedScheduler;
+
+    private List<T> elements;
+    private List<CompletableFuture<R>> futures;
+    private ScheduledFuture<?> lingerTask;
+    // identifies the current batch, so a linger task which couldn't be cancelled in time leaves the next one alone
+    private long generation;
+    private boolean closed;
+
+    /**
+     * Creates a queue scheduling the linger time on its own thread.
+     *
+     * @param maxBatchSize Maximum number of elements per batch.
+     * @param lingerTime Maximum time in ms an element waits for its batch to fill up.
+     * @param flusher Sends a batch, returning a stage completed with its outcome.
+     */
+    public BatchingQueue(int maxBatchSize, long lingerTime, Function<List<T>, ? extends CompletionStage<R>> flusher) {
+        this(maxBatchSize, lingerTime, flusher, null);
+    }
+
+    /**
+     * @param maxBatchSize Maximum number of elements per batch.
+     * @param lingerTime Maximum time in ms an element waits for its batch to fill up.
+     * @param flusher Sends a batch, returning a stage completed with its outcome. Batches flushed after their linger
+     *                time are sent from the scheduler's thread, so the flusher must not block.
+     * @param scheduler Schedules the linger time, it is not shut down when the queue is closed. {@code null} to let
+     *                  the queue create its own thread.
+     */
+    public BatchingQueue(int maxBatchSize, long lingerTime, Function<List<T>, ? extends CompletionStage<R>> flusher,
+                         ScheduledExecutorService scheduler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than zero");
+        }
+        if (lingerTime < 0) {
+            throw new IllegalArgumentException("lingerTime can not be negative");
+        }
+        if (flusher == null) {
+            throw new IllegalArgumentException("flusher can not be null");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.lingerTime = lingerTime;
+        this.flusher = flusher;
+        ownedScheduler = scheduler == null;
+        if (scheduler != null) {
+            this.scheduler = scheduler;
+            return;
+        }
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "aerogear-push-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Adds the given element to the current batch.
+     *
+     * @param element The element.
+     * @return a {@link CompletableFuture} completed with the outcome of the batch the element is flushed with
+     */
+    public CompletableFuture<R> add(T element) {
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        List<T> batch = null;
+        List<CompletableFuture<R>> batchFutures = null;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("The batching queue has been closed"));
+                return future;
+            }
+            if (elements == null) {
+                elements = new ArrayList<>(maxBatchSize);
+                futures = new ArrayList<>(maxBatchSize);
+                if (maxBatchSize > 1) {
+                    final long batchGeneration = generation;
+                    lingerTask = scheduler.schedule(() -> flush(batchGeneration), lingerTime, TimeUnit.MILLISECONDS);
+                }
+            }
+            elements.add(element);
+            futures.add(future);
+            if (elements.size() >= maxBatchSize) {
+                batch = elements;
+                batchFutures = futures;
+                reset();
+            }
+        }
+        if (batch != null) {
+            send(batch, batchFutures);
+        }
+        return future;
+    }
+
+    /**
+     * Flushes the current batch without waiting for it to fill up.
+     */
+    public void flush() {
+        flush(-1);
+    }
+
+    /**
+     * @param batchGeneration The generation of the batch to flush, negative to flush the current one.
+     */
+    private void flush(long batchGeneration) {
+        final List<T> batch;
+        final List<CompletableFuture<R>> batchFutures;
+        synchronized (this) {
+            if (elements == null || (batchGeneration >= 0 && batchGeneration != generation)) {
+                return;
+            }
+            batch = elements;
+            batchFutures = futures;
+            reset();
+        }
+        send(batch, batchFutures);
+    }
+
+    /**
+     * @return the number of elements waiting in the current batch
+     */
+    public synchronized int getPending() {
+        return elements == null ? 0 : elements.size();
+    }
+
+    /**
+     * Flushes the current batch and stops accepting elements.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        if (ownedScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    private void reset() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        elements = null;
+        futures = null;
+        generation++;
+    }
+
+    private void send(List<T> batch, List<CompletableFuture<R>> batchFutures) {
+        CompletionStage<R> outcome;
+        try {
+            outcome = flusher.apply(batch);
+        } catch (RuntimeException e) {
+            final CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            outcome = failed;
+        }
+        outcome.whenComplete((result, failure) -> {
+            for (CompletableFuture<R> future : batchFutures) {
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on an {@link Executor} while limiting how many of them are in flight at the same time.
+ * Tasks exceeding the limit are queued and started once a running task completes, the submitting
+ * thread never blocks. Tasks can also start asynchronous work, they are in flight until the future
+ * they returned completes.
+ * <p>
+ * Starting tasks can be paused for a while, e.g. when the server asked to be left alone through a {@code Retry-After}
+ * header. The pause needs a {@link ScheduledExecutorService} to resume.
+ */
+public class BoundedExecutor {
+
+    private final Executor executor;
+    private volatile int maxInFlight;
+    private final Queue<Task<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean paused;
+    private long resumeAt;
+
+    /**
+     * @param executor The executor running the tasks.
+     * @param maxInFlight Maximum number of tasks running at the same time.
+     */
+    public BoundedExecutor(Executor executor, int maxInFlight) {
+        this(executor, maxInFlight, null);
+    }
+
+    /**
+     * @param executor The executor running the tasks.
+     * @param maxInFlight Maximum number of tasks running at the same time.
+     * @param scheduler Resumes starting tasks after a {@link #pause(long, TimeUnit)}, {@code null} if never paused.
+     */
+    public BoundedExecutor(Executor executor, int maxInFlight, ScheduledExecutorService scheduler) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can not be null");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be greater than zero");
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Submits the given task.
+     *
+     * @param task The task to run.
+     * @param <T> The type of the task's result.
+     * @return a {@link CompletableFuture} completed with the outcome of the task
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submitAsync(() -> CompletableFuture.completedFuture(task.call()));
+    }
+
+    /**
+     * Submits the given task starting asynchronous work.
+     *
+     * @param task The task to run.
+     * @param <T> The type of the task's result.
+     * @return a {@link CompletableFuture} completed with the outcome of the future returned by the task
+     */
+    public <T> CompletableFuture<T> submitAsync(Callable<? extends CompletionStage<T>> task) {
+        final Task<T> pendingTask = new Task<>(task);
+        pending.add(pendingTask);
+        drain();
+        return pendingTask.future;
+    }
+
+    /**
+     * Changes the maximum number of tasks running at the same time. Lowering it doesn't interrupt running tasks, no
+     * new task is started until enough of them completed.
+     *
+     * @param maxInFlight Maximum number of tasks running at the same time.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be greater than zero");
+        }
+        this.maxInFlight = maxInFlight;
+        drain();
+    }
+
+    /**
+     * Stops starting tasks for the given time. Running tasks are not affected, submitted tasks are queued until the
+     * pause is over. A shorter pause doesn't end a longer one.
+     *
+     * @param delay How long to pause.
+     * @param unit The unit of the delay.
+     * @throws IllegalStateException when no scheduler has been given.
+     */
+    public void pause(long delay, TimeUnit unit) {
+        if (scheduler == null) {
+            throw new IllegalStateException("pausing requires a scheduler");
+        }
+        synchronized (this) {
+            final long until = System.nanoTime() + unit.toNanos(delay);
+            if (paused && resumeAt - until >= 0) {
+                return;
+            }
+            resumeAt = until;
+            paused = true;
+        }
+        try {
+            scheduler.schedule(this::resume, delay, unit);
+        } catch (RejectedExecutionException e) {
+            // the scheduler has been shut down, nothing would resume
+            synchronized (this) {
+                paused = false;
+            }
+            drain();
+        }
+    }
+
+    private void resume() {
+        synchronized (this) {
+            // a later pause extended this one, its own task resumes
+            if (!paused || System.nanoTime() - resumeAt < 0) {
+                return;
+            }
+            paused = false;
+        }
+        drain();
+    }
+
+    /**
+     * @return true if starting tasks is paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the maximum number of tasks running at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of tasks waiting to be started
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    private void drain() {
+        while (!paused && !pending.isEmpty()) {
+            final int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            final Task<?> task = pending.poll();
+            if (task == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                inFlight.decrementAndGet();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final class Task<T> implements Runnable {
+
+        private final Callable<? extends CompletionStage<T>> callable;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(Callable<? extends CompletionStage<T>> callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            CompletionStage<T> stage;
+            try {
+                stage = callable.call();
+            } catch (Throwable t) {
+                final CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(t);
+                stage = failed;
+            }
+            stage.whenComplete((result, failure) -> {
+                // free the slot before completing, so dependent stages can submit right away
+                inFlight.decrementAndGet();
+                drain();
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker failing requests fast while the Push Server is unavailable.
+ * <p>
+ * While {@link State#CLOSED} requests are let through and their outcomes recorded in a sliding window. Once the window
+ * holds at least the minimum number of calls and their failure rate reaches the threshold, the breaker opens and
+ * rejects every request for the open duration. It then turns {@link State#HALF_OPEN} and lets a few trial requests
+ * through: it closes again if they all succeed, and opens again as soon as one fails.
+ * <p>
+ * A permitted request reports its outcome through the {@link Permission} it was given. Every state transition starts a
+ * new generation, and outcomes of requests permitted in an earlier generation are ignored: a slow request let through
+ * while closed can neither close a half-open breaker nor count in the window of a breaker which closed again.
+ * <p>
+ * Letting a request through is lock-free and allocation-free while closed.
+ */
+public class CircuitBreaker {
+
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final long DEFAULT_OPEN_DURATION = 30000;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Notified of the state transitions of a {@link CircuitBreaker}, e.g. for monitoring.
+     */
+    public interface Listener {
+
+        /**
+         * Called after the breaker changed its state, on the thread which caused the transition.
+         *
+         * @param circuitBreaker The circuit breaker.
+         * @param from The previous state.
+         * @param to The new state.
+         */
+        void onStateTransition(CircuitBreaker circuitBreaker, State from, State to);
+    }
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDuration;
+    private final int halfOpenCalls;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    /**
+     * The outcomes of the last calls while closed, true for a failure.
+     */
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCalls;
+    private int windowFailures;
+
+    /**
+     * The permission handed out in the current generation, replaced on every state transition.
+     */
+    private volatile Permission permission = new Permission(0);
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private CircuitBreaker(Builder builder) {
+        failureRateThreshold = builder.failureRateThreshold;
+        minimumCalls = builder.minimumCalls;
+        openDuration = TimeUnit.MILLISECONDS.toNanos(builder.openDuration);
+        halfOpenCalls = builder.halfOpenCalls;
+        window = new boolean[builder.slidingWindowSize];
+    }
+
+    /**
+     * Starts a {@link Builder} by providing the failure rate opening the breaker.
+     *
+     * @param failureRateThreshold The failure rate, between 0 and 1.
+     * @return a {@link Builder} instance
+     */
+    public static Builder withFailureRateThreshold(double failureRateThreshold) {
+        return new Builder().failureRateThreshold(failureRateThreshold);
+    }
+
+    /**
+     * @return a {@link CircuitBreaker} using the default settings
+     */
+    public static CircuitBreaker defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Asks whether a request may be sent. Every permitted request must report its outcome through
+     * {@link Permission#onSuccess()} or {@link Permission#onFailure()}.
+     *
+     * @return the permission to send the request, or {@code null} if it has to be rejected
+     */
+    public Permission tryAcquirePermission() {
+        // read before the state: if the breaker transitions in between, the permission is stale and ignored
+        final Permission current = permission;
+        if (state == State.CLOSED) {
+            return current;
+        }
+        Permission permitted = null;
+        State from = null;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openDuration) {
+                from = transition(State.HALF_OPEN);
+                halfOpenPermits = halfOpenCalls;
+                halfOpenSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenPermits > 0) {
+                    halfOpenPermits--;
+                    permitted = permission;
+                }
+            } else if (state == State.CLOSED) {
+                permitted = permission;
+            }
+        }
+        notifyTransition(from, State.HALF_OPEN);
+        if (permitted == null) {
+            rejectedCalls.incrementAndGet();
+        }
+        return permitted;
+    }
+
+    private void record(Permission permitted, boolean failure) {
+        State from = null;
+        final State to;
+        synchronized (this) {
+            if (permitted.generation != permission.generation) {
+                // outcome of a request permitted before the last transition
+                return;
+            }
+            switch (state) {
+                case HALF_OPEN:
+                    if (failure) {
+                        from = open();
+                    } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                        from = transition(State.CLOSED);
+                        resetWindow();
+                    }
+                    break;
+                case CLOSED:
+                    if (windowCalls == window.length) {
+                        if (window[windowPosition]) {
+                            windowFailures--;
+                        }
+                    } else {
+                        windowCalls++;
+                    }
+                    window[windowPosition] = failure;
+                    windowPosition = (windowPosition + 1) % window.length;
+                    if (failure) {
+                        windowFailures++;
+                    }
+                    if (windowCalls >= minimumCalls && windowFailures >= failureRateThreshold * windowCalls) {
+                        from = open();
+                    }
+                    break;
+                default:
+                    // permission read while the breaker opened, see tryAcquirePermission
+                    break;
+            }
+            to = state;
+        }
+        notifyTransition(from, to);
+    }
+
+    private State open() {
+        openedAt = System.nanoTime();
+        return transition(State.OPEN);
+    }
+
+    private State transition(State to) {
+        final State from = state;
+        // published before the state, see tryAcquirePermission
+        permission = new Permission(permission.generation + 1);
+        state = to;
+        return from;
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private void notifyTransition(State from, State to) {
+        if (from == null || from == to) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.onStateTransition(this, from, to);
+        }
+    }
+
+    /**
+     * @param listener Notified of every state transition.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener previously added.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current state, an open breaker only turns half-open when asked for a permission
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the failure rate of the calls in the sliding window, {@code 0} if empty
+     */
+    public synchronized double getFailureRate() {
+        return windowCalls == 0 ? 0 : (double) windowFailures / windowCalls;
+    }
+
+    /**
+     * @return the number of requests rejected since the breaker was created
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    /**
+     * The permission to send a request, through which its outcome is reported. It belongs to the generation of the
+     * breaker state it was acquired in, and is shared by all requests permitted in that generation.
+     */
+    public final class Permission {
+
+        private final long generation;
+
+        private Permission(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * Records a permitted request which succeeded.
+         */
+        public void onSuccess() {
+            record(this, false);
+        }
+
+        /**
+         * Records a permitted request which failed because of the Push Server.
+         */
+        public void onFailure() {
+            record(this, true);
+        }
+
+        /**
+         * @return the generation of the breaker state the permission was acquired in
+         */
+        public long getGeneration() {
+            return generation;
+        }
+    }
+
+    /**
+     * A builder to make it easier to construct {@link CircuitBreaker} instances.
+     */
+    public static final class Builder {
+
+        private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+        private int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+        private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+        private long openDuration = DEFAULT_OPEN_DURATION;
+        private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+        private Builder() {
+        }
+
+        /**
+         * @param failureRateThreshold The failure rate opening the breaker, between 0 and 1.
+         * @return the current {@link Builder} instance
+         */
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slidingWindowSize The number of most recent calls the failure rate is computed over.
+         * @return the current {@link Builder} instance
+         */
+        public Builder slidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+            return this;
+        }
+
+        /**
+         * @param minimumCalls The number of calls the window must hold before the breaker can open.
+         * @return the current {@link Builder} instance
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * @param openDuration Time in ms the breaker stays open before letting trial requests through.
+         * @return the current {@link Builder} instance
+         */
+        public Builder openDuration(long openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * @param halfOpenCalls The number of trial requests which must succeed to close the breaker again.
+         * @return the current {@link Builder} instance
+         */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * Build the {@link CircuitBreaker}.
+         *
+         * @return the built up {@link CircuitBreaker}
+         */
+        public CircuitBreaker build() {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("failureRateThreshold must be greater than 0 and at most 1");
+            }
+            if (slidingWindowSize < 1 || minimumCalls < 1 || minimumCalls > slidingWindowSize) {
+                throw new IllegalArgumentException("minimumCalls must be greater than zero and not exceed slidingWindowSize");
+            }
+            if (openDuration < 0) {
+                throw new IllegalArgumentException("openDuration can not be negative");
+            }
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("halfOpenCalls must be greater than zero");
+            }
+            return new CircuitBreaker(this);
+        }
+    }
+}
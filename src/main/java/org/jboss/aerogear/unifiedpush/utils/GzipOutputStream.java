@@ -0,0 +1,159 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses the data written to it in the gzip format, like {@link java.util.zip.GZIPOutputStream}, but borrows its
+ * {@link Deflater} from a pool instead of allocating, and eventually freeing, the native memory of a new one for every
+ * request. The {@link Deflater} is returned to the pool by {@link #finish()}, which leaves the underlying stream open,
+ * or by {@link #discard()} once writing failed.
+ */
+public class GzipOutputStream extends DeflaterOutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * Maximum number of idle {@link Deflater}s kept in the pool.
+     */
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final Queue<Deflater> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final CRC32 crc = new CRC32();
+    private boolean finished;
+
+    /**
+     * @param out The stream the compressed data is written to.
+     * @throws IOException when the gzip header could not be written.
+     */
+    public GzipOutputStream(OutputStream out) throws IOException {
+        super(out, borrow(), BUFFER_SIZE);
+        try {
+            out.write(HEADER);
+        } catch (IOException | RuntimeException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses the given data in the gzip format.
+     *
+     * @param data The data to compress.
+     * @return the compressed data
+     */
+    public static byte[] compress(byte[] data) {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(data.length / 4, 64));
+        try (GzipOutputStream gzip = new GzipOutputStream(compressed)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /**
+     * Writes the remaining compressed data and the gzip trailer, and returns the {@link Deflater} to the pool.
+     *
+     * @throws IOException when the data could not be written.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            super.finish();
+            final byte[] trailer = new byte[8];
+            writeInt(trailer, 0, (int) crc.getValue());
+            writeInt(trailer, 4, def.getTotalIn());
+            out.write(trailer);
+        } finally {
+            finished = true;
+            release(def);
+        }
+    }
+
+    /**
+     * Returns the {@link Deflater} to the pool without writing the remaining data, e.g. once writing to the underlying
+     * stream failed. Does nothing once the stream has been finished, nothing can be written afterwards.
+     */
+    public void discard() {
+        if (!finished) {
+            finished = true;
+            release(def);
+        }
+    }
+
+    /**
+     * @return the number of idle {@link Deflater}s in the pool
+     */
+    static int pooledDeflaters() {
+        return pooled.get();
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        // little endian, as mandated by RFC 1952
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static Deflater borrow() {
+        final Deflater deflater = pool.poll();
+        if (deflater == null) {
+            // raw deflate, the gzip header and trailer are written by the stream
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        pooled.decrementAndGet();
+        return deflater;
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(deflater);
+        } else {
+            pooled.decrementAndGet();
+            deflater.end();
+        }
+    }
+}
@@ -16,37 +16,97 @@
  */
 package org.jboss.aerogear.unifiedpush.utils;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.lang.reflect.Method;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
-import java.security.KeyStore;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
 
 import org.jboss.aerogear.unifiedpush.ca.TrustStoreManagerService;
 import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
 import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.transport.ConnectionMode;
+import org.jboss.aerogear.unifiedpush.transport.PayloadWriter;
 
 /**
  * Util class for URLConnection creation
  */
 public class HttpRequestUtil {
+
+    /**
+     * Length of the chunks of streamed payloads.
+     */
+    private static final int CHUNK_LENGTH = 8192;
+
+    /**
+     * {@code HttpURLConnection#setAuthenticator(Authenticator)}, {@code null} before Java 9.
+     */
+    private static final Method SET_AUTHENTICATOR = findSetAuthenticator();
+
+    /**
+     * Default time in ms the resolved address of the proxy host is reused.
+     */
+    public static final int DEFAULT_DNS_CACHE_TTL = 30000;
+
     /**
      * Additional settings to use for {@link java.net.URLConnection} on submitting payload.
+     * <p>
+     * The settings also keep the {@link URL}s and the {@link Proxy} derived from them for reuse, every sender
+     * works on its own copy.
      */
     public static class ConnectionSettings {
+
+        /**
+         * Maximum number of parsed {@link URL}s kept for reuse.
+         */
+        private static final int MAX_CACHED_URLS = 256;
+
         private Integer readTimeout;
         private Integer connectTimeout;
+        private ConnectionMode connectionMode;
+        private Integer maxConnectionsPerRoute;
+        private Integer idleConnectionTimeout;
+        private Integer connectionTimeToLive;
+        private Integer dnsCacheTtl;
+        private Integer compressionThreshold;
+
+        // derived on first use, never copied
+        private final transient ConcurrentMap<String, URL> urls = new ConcurrentHashMap<>();
+        private transient volatile ResolvedProxy resolvedProxy;
+
+        public ConnectionSettings() {
+        }
+
+        /**
+         * Copies the given settings, without the {@link URL}s and the {@link Proxy} they keep for reuse.
+         *
+         * @param settings The settings to copy.
+         */
+        public ConnectionSettings(ConnectionSettings settings) {
+            readTimeout = settings.readTimeout;
+            connectTimeout = settings.connectTimeout;
+            connectionMode = settings.connectionMode;
+            maxConnectionsPerRoute = settings.maxConnectionsPerRoute;
+            idleConnectionTimeout = settings.idleConnectionTimeout;
+            connectionTimeToLive = settings.connectionTimeToLive;
+            dnsCacheTtl = settings.dnsCacheTtl;
+            compressionThreshold = settings.compressionThreshold;
+        }
 
         /**
          * @return Timeout in ms or {@code null} if using default.
@@ -77,6 +137,157 @@ public class HttpRequestUtil {
         public void setConnectTimeout(Integer connectTimeout) {
             this.connectTimeout = connectTimeout;
         }
+
+        /**
+         * @return The {@link ConnectionMode} or {@code null} if using default.
+         */
+        public ConnectionMode getConnectionMode() {
+            return connectionMode;
+        }
+
+        /**
+         * @param connectionMode How connections to the Push Server are handled or {@code null} to use default.
+         */
+        public void setConnectionMode(ConnectionMode connectionMode) {
+            this.connectionMode = connectionMode;
+        }
+
+        /**
+         * @return Maximum number of pooled connections per route or {@code null} if using default.
+         */
+        public Integer getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        /**
+         * @param maxConnectionsPerRoute Maximum number of pooled connections per route or {@code null} to use default.
+         */
+        public void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        /**
+         * @return Time in ms a pooled connection may stay idle or {@code null} if using default.
+         */
+        public Integer getIdleConnectionTimeout() {
+            return idleConnectionTimeout;
+        }
+
+        /**
+         * @param idleConnectionTimeout Time in ms a pooled connection may stay idle before it gets evicted
+         *                              or {@code null} to use default.
+         */
+        public void setIdleConnectionTimeout(Integer idleConnectionTimeout) {
+            this.idleConnectionTimeout = idleConnectionTimeout;
+        }
+
+        /**
+         * @return Maximum lifetime in ms of a pooled connection or {@code null} if unlimited.
+         */
+        public Integer getConnectionTimeToLive() {
+            return connectionTimeToLive;
+        }
+
+        /**
+         * @param connectionTimeToLive Maximum lifetime in ms of a pooled connection or {@code null} for no limit.
+         */
+        public void setConnectionTimeToLive(Integer connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+        }
+
+        /**
+         * @return Time in ms the resolved address of the proxy host is reused or {@code null} if using default.
+         */
+        public Integer getDnsCacheTtl() {
+            return dnsCacheTtl;
+        }
+
+        /**
+         * @param dnsCacheTtl Time in ms the resolved address of the proxy host is reused before it is resolved again
+         *                    or {@code null} to use default.
+         */
+        public void setDnsCacheTtl(Integer dnsCacheTtl) {
+            this.dnsCacheTtl = dnsCacheTtl;
+        }
+
+        /**
+         * @return Minimum size in bytes of a gzip compressed payload or {@code null} if compression is disabled.
+         */
+        public Integer getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        /**
+         * @param compressionThreshold Minimum size in bytes of a payload to be sent gzip compressed
+         *                             or {@code null} to disable compression.
+         */
+        public void setCompressionThreshold(Integer compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+
+        /**
+         * @param length The length of the payload in bytes, negative if unknown.
+         * @return true if the payload is sent gzip compressed
+         */
+        public boolean isCompressed(long length) {
+            // streamed payloads are large batches, they are compressed whenever compression is enabled
+            return compressionThreshold != null && (length < 0 || length >= compressionThreshold);
+        }
+
+        /**
+         * Get the {@link Proxy} to open connections through. The instance, along with the resolved address of the
+         * proxy host, is reused until it is older than the {@link #getDnsCacheTtl() DNS cache TTL} or the proxy
+         * settings changed.
+         *
+         * @param proxy The proxy configuration.
+         * @return A {@link Proxy}
+         */
+        public Proxy getProxy(ProxyConfig proxy) {
+            final long now = System.nanoTime();
+            final long ttl = TimeUnit.MILLISECONDS.toNanos(dnsCacheTtl != null ? dnsCacheTtl : DEFAULT_DNS_CACHE_TTL);
+            ResolvedProxy current = resolvedProxy;
+            if (current == null || now - current.resolvedAt >= ttl || !current.isFor(proxy)) {
+                current = new ResolvedProxy(proxy, now);
+                resolvedProxy = current;
+            }
+            return current.proxy;
+        }
+
+        /**
+         * Parses the given URL once, the sender posts to the same few URLs over and over.
+         */
+        private URL toURL(String url) throws MalformedURLException {
+            URL parsed = urls.get(url);
+            if (parsed == null) {
+                parsed = new URL(url);
+                if (urls.size() >= MAX_CACHED_URLS) {
+                    urls.clear();
+                }
+                urls.put(url, parsed);
+            }
+            return parsed;
+        }
+    }
+
+    private static final class ResolvedProxy {
+
+        private final Proxy.Type type;
+        private final String host;
+        private final int port;
+        private final Proxy proxy;
+        private final long resolvedAt;
+
+        private ResolvedProxy(ProxyConfig config, long resolvedAt) {
+            this.type = config.getProxyType();
+            this.host = config.getProxyHost();
+            this.port = config.getProxyPort();
+            this.proxy = config.toProxy();
+            this.resolvedAt = resolvedAt;
+        }
+
+        private boolean isFor(ProxyConfig config) {
+            return type == config.getProxyType() && port == config.getProxyPort() && Objects.equals(host, config.getProxyHost());
+        }
     }
 
     private HttpRequestUtil() {
@@ -99,30 +310,130 @@ public class HttpRequestUtil {
     public static URLConnection post(String url, String encodedCredentials, String jsonPayloadObject, Charset charset,
                                      ProxyConfig proxy, TrustStoreConfig customTrustStore, ConnectionSettings connectionSettings) throws Exception {
 
-        if (url == null || encodedCredentials == null || jsonPayloadObject == null) {
+        if (jsonPayloadObject == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+
+        return post(url, encodedCredentials, jsonPayloadObject.getBytes(charset), proxy, customTrustStore, connectionSettings);
+    }
+
+    /**
+     * Returns URLConnection that 'posts' the given, already encoded, JSON payload to the given UnifiedPush Server URL.
+     *
+     * @param url
+     * @param encodedCredentials
+     * @param payload
+     * @param proxy
+     * @param customTrustStore
+     * @param connectionSettings
+     * @return {@link URLConnection}
+     * @throws Exception
+     */
+    public static URLConnection post(String url, String encodedCredentials, byte[] payload,
+                                     ProxyConfig proxy, TrustStoreConfig customTrustStore, ConnectionSettings connectionSettings) throws Exception {
+
+        if (url == null || encodedCredentials == null || payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+
+        URLConnection conn = openPostConnection(url, encodedCredentials, proxy, customTrustStore, connectionSettings);
+        final boolean compressed = connectionSettings.isCompressed(payload.length);
+        if (compressed) {
+            // the compressed length is only known once it has been written
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            ((HttpURLConnection) conn).setChunkedStreamingMode(CHUNK_LENGTH);
+        } else {
+            ((HttpURLConnection) conn).setFixedLengthStreamingMode(payload.length);
+        }
+
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = compressed ? new GzipOutputStream(conn.getOutputStream()) : conn.getOutputStream();
+            out.write(payload);
+            written = true;
+        } finally {
+            // in case something blows up, while writing
+            // the payload, we wanna close the stream:
+            close(out, written);
+        }
+        return conn;
+    }
+
+    /**
+     * Returns URLConnection that 'posts' the JSON payload written by the given {@link PayloadWriter} to the given
+     * UnifiedPush Server URL. The payload is streamed using chunked transfer encoding, so it never has to be held in
+     * memory as a whole.
+     *
+     * @param url
+     * @param encodedCredentials
+     * @param payload
+     * @param proxy
+     * @param customTrustStore
+     * @param connectionSettings
+     * @return {@link URLConnection}
+     * @throws Exception
+     */
+    public static URLConnection postStreaming(String url, String encodedCredentials, PayloadWriter payload,
+                                              ProxyConfig proxy, TrustStoreConfig customTrustStore, ConnectionSettings connectionSettings) throws Exception {
+
+        if (url == null || encodedCredentials == null || payload == null) {
             throw new IllegalArgumentException("arguments cannot be null");
         }
 
-        byte[] bytes = jsonPayloadObject.getBytes(charset);
-        URLConnection conn = getConnection(url, proxy);
+        URLConnection conn = openPostConnection(url, encodedCredentials, proxy, customTrustStore, connectionSettings);
+        ((HttpURLConnection) conn).setChunkedStreamingMode(CHUNK_LENGTH);
+
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            if (connectionSettings.isCompressed(-1)) {
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                // buffered by the deflater
+                out = new GzipOutputStream(conn.getOutputStream());
+            } else {
+                out = new BufferedOutputStream(conn.getOutputStream(), CHUNK_LENGTH);
+            }
+            payload.writeTo(out);
+            written = true;
+        } finally {
+            // in case something blows up, while writing
+            // the payload, we wanna close the stream:
+            close(out, written);
+        }
+        return conn;
+    }
+
+    /**
+     * Closes the request body. When writing it failed, a compressing stream gives its deflater back right away,
+     * instead of compressing the rest of the payload into a broken connection.
+     */
+    private static void close(OutputStream out, boolean written) throws IOException {
+        if (out == null) {
+            return;
+        }
+        if (!written && out instanceof GzipOutputStream) {
+            ((GzipOutputStream) out).discard();
+        }
+        out.close();
+    }
+
+    private static URLConnection openPostConnection(String url, String encodedCredentials, ProxyConfig proxy,
+                                                    TrustStoreConfig customTrustStore, ConnectionSettings connectionSettings) throws Exception {
+        URLConnection conn = getConnection(url, proxy, connectionSettings);
+
+        if (proxy != null && proxy.getProxyUser() != null) {
+            authenticateProxy(url, (HttpURLConnection) conn, proxy);
+        }
 
         if (customTrustStore != null && customTrustStore.getTrustStorePath() != null && conn instanceof HttpsURLConnection) {
-            KeyStore trustStore = TrustStoreManagerService
+            ((HttpsURLConnection) conn).setSSLSocketFactory(TrustStoreManagerService
                     .getInstance()
-                    .getTrustStoreManager()
-                    .loadTrustStore(customTrustStore.getTrustStorePath(), customTrustStore.getTrustStoreType(),
-                            customTrustStore.getTrustStorePassword());
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(trustStore);
-            SSLContext ctx = SSLContext.getInstance("TLS");
-            ctx.init(null, tmf.getTrustManagers(), null);
-            SSLSocketFactory sslSocketFactory = ctx.getSocketFactory();
-            ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+                    .getSSLSocketFactory(customTrustStore));
         }
 
         conn.setDoOutput(true);
         conn.setUseCaches(false);
-        ((HttpURLConnection) conn).setFixedLengthStreamingMode(bytes.length);
         conn.setRequestProperty("Authorization", "Basic " + encodedCredentials);
         conn.setRequestProperty("Content-Type", "application/json");
         conn.setRequestProperty("Accept", "application/json, text/plain");
@@ -136,17 +447,6 @@ public class HttpRequestUtil {
         // custom header, for UPS
         conn.setRequestProperty("aerogear-sender", "AeroGear Java Sender");
         ((HttpURLConnection) conn).setRequestMethod("POST");
-        OutputStream out = null;
-        try {
-            out = conn.getOutputStream();
-            out.write(bytes);
-        } finally {
-            // in case something blows up, while writing
-            // the payload, we wanna close the stream:
-            if (out != null) {
-                out.close();
-            }
-        }
         return conn;
     }
 
@@ -155,29 +455,115 @@ public class HttpRequestUtil {
      *
      * @param url The URL to connect to.
      * @param proxy The proxy configuration.
+     * @param connectionSettings The connection settings.
      * @return {@link URLConnection}
      * @throws IOException
      */
-    private static URLConnection getConnection(String url, final ProxyConfig proxy) throws IOException {
+    private static URLConnection getConnection(String url, final ProxyConfig proxy, ConnectionSettings connectionSettings) throws IOException {
         URLConnection conn = null;
 
-        if (proxy != null && proxy.getProxyUser() != null) {
-            Authenticator.setDefault(new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(proxy.getProxyUser(), proxy.getProxyPassword().toCharArray());
-                }
-
-            });
-        }
-
         if (proxy != null) {
-            Proxy thisProxy = new Proxy(proxy.getProxyType(), new InetSocketAddress(proxy.getProxyHost(), proxy.getProxyPort()));
-            conn = new URL(url).openConnection(thisProxy);
+            conn = connectionSettings.toURL(url).openConnection(connectionSettings.getProxy(proxy));
         } else {
-            conn = new URL(url).openConnection();
+            conn = connectionSettings.toURL(url).openConnection();
         }
 
         return conn;
     }
+
+    /**
+     * Applies the proxy credentials to the given connection only, instead of installing a JVM wide
+     * {@link Authenticator#setDefault(Authenticator)} for every request. Plain HTTP requests through an HTTP proxy
+     * carry the precomputed {@code Proxy-Authorization} header, tunnels and SOCKS proxies get the credentials from an
+     * {@link Authenticator} scoped to the connection. Java 8 can't scope an {@link Authenticator} to a connection,
+     * the credentials of tunnels and SOCKS proxies are answered by a default {@link Authenticator} installed once.
+     */
+    private static void authenticateProxy(String url, HttpURLConnection conn, ProxyConfig proxy) {
+        // through a tunnel, the header would be sent to the Push Server instead of the proxy
+        final boolean tunneled = proxy.getProxyType() != Proxy.Type.HTTP || !url.regionMatches(true, 0, "http:", 0, 5);
+        if (!tunneled) {
+            conn.setRequestProperty("Proxy-Authorization", proxy.getProxyAuthorization());
+        }
+        if (SET_AUTHENTICATOR != null) {
+            try {
+                SET_AUTHENTICATOR.invoke(conn, new ProxyAuthenticator(proxy));
+                return;
+            } catch (ReflectiveOperationException e) {
+                // falls back to the default authenticator
+            }
+        }
+        if (tunneled) {
+            DefaultProxyAuthenticator.register(proxy);
+        }
+    }
+
+    private static Method findSetAuthenticator() {
+        try {
+            return HttpURLConnection.class.getMethod("setAuthenticator", Authenticator.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Default {@link Authenticator} answering the authentication requests of the registered proxies, keyed by their
+     * host and port. It is installed by the first sender authenticating a tunnel or a SOCKS proxy without an
+     * {@link Authenticator} scoped to the connection, i.e. on Java 8, and replaces any default installed before.
+     * Requests for other hosts are left unanswered.
+     */
+    static final class DefaultProxyAuthenticator extends Authenticator {
+
+        private static final DefaultProxyAuthenticator INSTANCE = new DefaultProxyAuthenticator();
+        private static final AtomicBoolean installed = new AtomicBoolean();
+
+        private final ConcurrentMap<String, ProxyConfig> proxies = new ConcurrentHashMap<>();
+
+        private DefaultProxyAuthenticator() {
+        }
+
+        static void register(ProxyConfig proxy) {
+            INSTANCE.proxies.put(key(proxy.getProxyHost(), proxy.getProxyPort()), proxy);
+            if (installed.compareAndSet(false, true)) {
+                Authenticator.setDefault(INSTANCE);
+            }
+        }
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() != RequestorType.PROXY || getRequestingHost() == null) {
+                return null;
+            }
+            final ProxyConfig proxy = proxies.get(key(getRequestingHost(), getRequestingPort()));
+            return proxy == null ? null : ProxyAuthenticator.toPasswordAuthentication(proxy);
+        }
+
+        private static String key(String host, int port) {
+            return host.toLowerCase(Locale.ROOT) + ':' + port;
+        }
+    }
+
+    /**
+     * Answers the authentication requests of the proxy with the configured proxy user.
+     */
+    private static final class ProxyAuthenticator extends Authenticator {
+
+        private final ProxyConfig proxy;
+
+        private ProxyAuthenticator(ProxyConfig proxy) {
+            this.proxy = proxy;
+        }
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() != RequestorType.PROXY) {
+                return null;
+            }
+            return toPasswordAuthentication(proxy);
+        }
+
+        private static PasswordAuthentication toPasswordAuthentication(ProxyConfig proxy) {
+            final String password = proxy.getProxyPassword();
+            return new PasswordAuthentication(proxy.getProxyUser(), password == null ? new char[0] : password.toCharArray());
+        }
+    }
 }
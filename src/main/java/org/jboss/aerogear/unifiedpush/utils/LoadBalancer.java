@@ -0,0 +1,320 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads the requests over the nodes of a multi-node UnifiedPush Server deployment and tracks their health.
+ * <p>
+ * A node failing {@code ejectionThreshold} requests in a row is ejected: no request is sent to it for the ejection
+ * time, after which it is selected again. If every node is ejected, the one ejected first is selected anyway rather
+ * than failing all requests.
+ */
+public class LoadBalancer {
+
+    public static final int DEFAULT_EJECTION_THRESHOLD = 3;
+    public static final long DEFAULT_EJECTION_TIME = 30000;
+
+    private static final Logger logger = Logger.getLogger(LoadBalancer.class.getName());
+
+    /**
+     * The weight of the latest sample in the moving averages of the latency and error rate.
+     */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /**
+     * Added to the latency of every node, so that nodes not measured yet are tried without all requests rushing to
+     * them until their first response.
+     */
+    private static final double BASE_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * How the next node is selected.
+     */
+    public enum Strategy {
+
+        /**
+         * Every node is selected in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The node with the fewest requests in flight is selected, which favors the faster nodes.
+         */
+        LEAST_OUTSTANDING_REQUESTS,
+
+        /**
+         * Two healthy nodes are picked at random and the one with the lowest expected cost is selected, i.e. the
+         * moving average of its latency weighted by its requests in flight and its error rate. Slow or failing nodes
+         * lose most comparisons and receive little traffic, while picking among two rather than the best of all keeps
+         * the senders from all rushing to the same node.
+         */
+        LATENCY_AWARE
+    }
+
+    private final List<Endpoint> endpoints;
+    private final Strategy strategy;
+    private final int ejectionThreshold;
+    private final long ejectionTime;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param serverUrls The root URLs of the nodes.
+     * @param strategy How the next node is selected.
+     * @param ejectionThreshold The number of consecutive failures ejecting a node.
+     * @param ejectionTime Time in ms an ejected node doesn't receive requests.
+     */
+    public LoadBalancer(List<String> serverUrls, Strategy strategy, int ejectionThreshold, long ejectionTime) {
+        if (serverUrls == null || serverUrls.isEmpty()) {
+            throw new IllegalArgumentException("serverUrls can not be empty");
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy can not be null");
+        }
+        if (ejectionThreshold < 1) {
+            throw new IllegalArgumentException("ejectionThreshold must be greater than zero");
+        }
+        if (ejectionTime < 0) {
+            throw new IllegalArgumentException("ejectionTime can not be negative");
+        }
+        final List<Endpoint> endpoints = new ArrayList<>(serverUrls.size());
+        for (String serverUrl : serverUrls) {
+            endpoints.add(new Endpoint(serverUrl));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.strategy = strategy;
+        this.ejectionThreshold = ejectionThreshold;
+        this.ejectionTime = TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+    }
+
+    /**
+     * Selects the node the next request is sent to.
+     *
+     * @param excluded The nodes which must not be selected, e.g. those already tried by the request.
+     * @return the selected {@link Endpoint}, or {@code null} if all of them are excluded
+     */
+    public Endpoint select(Collection<Endpoint> excluded) {
+        if (strategy == Strategy.LATENCY_AWARE) {
+            return selectPowerOfTwoChoices(excluded);
+        }
+        final long now = System.nanoTime();
+        final int size = endpoints.size();
+        final int offset = Math.floorMod(next.getAndIncrement(), size);
+        Endpoint selected = null;
+        Endpoint fallback = null;
+        for (int i = 0; i < size; i++) {
+            final Endpoint endpoint = endpoints.get((offset + i) % size);
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isEjected(now)) {
+                if (fallback == null || endpoint.ejectedUntil - fallback.ejectedUntil < 0) {
+                    fallback = endpoint;
+                }
+                continue;
+            }
+            if (strategy == Strategy.ROUND_ROBIN) {
+                return endpoint;
+            }
+            if (selected == null || endpoint.outstandingRequests.get() < selected.outstandingRequests.get()) {
+                selected = endpoint;
+            }
+        }
+        return selected != null ? selected : fallback;
+    }
+
+    private Endpoint selectPowerOfTwoChoices(Collection<Endpoint> excluded) {
+        final long now = System.nanoTime();
+        final List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        Endpoint fallback = null;
+        for (Endpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            if (!endpoint.isEjected(now)) {
+                candidates.add(endpoint);
+            } else if (fallback == null || endpoint.ejectedUntil - fallback.ejectedUntil < 0) {
+                fallback = endpoint;
+            }
+        }
+        if (candidates.size() < 2) {
+            return candidates.isEmpty() ? fallback : candidates.get(0);
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(candidates.size());
+        // any other candidate, with the same probability
+        final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+        final Endpoint one = candidates.get(first);
+        final Endpoint other = candidates.get(second);
+        return one.getCost() <= other.getCost() ? one : other;
+    }
+
+    /**
+     * @return the nodes, e.g. to monitor their health
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * A node of the UnifiedPush Server. Every request sent to it must report its start and outcome.
+     */
+    public final class Endpoint {
+
+        private final String url;
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong latency = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        private final AtomicLong errorRate = new AtomicLong(Double.doubleToRawLongBits(0));
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Records a request sent to the node.
+         *
+         * @return the start time of the request, to be passed to {@link #onSuccess(long)} or {@link #onFailure(long)}
+         */
+        public long onStart() {
+            outstandingRequests.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Records a request the node responded to.
+         *
+         * @param startTime The time returned by {@link #onStart()}.
+         */
+        public void onSuccess(long startTime) {
+            outstandingRequests.decrementAndGet();
+            consecutiveFailures.set(0);
+            update(latency, System.nanoTime() - startTime);
+            update(errorRate, 0);
+        }
+
+        /**
+         * Records a request which failed because of the node, ejecting it after too many failures in a row.
+         *
+         * @param startTime The time returned by {@link #onStart()}.
+         */
+        public void onFailure(long startTime) {
+            outstandingRequests.decrementAndGet();
+            // the latency of a failure, e.g. a refused connection, tells nothing about the node's speed
+            update(errorRate, 1);
+            if (consecutiveFailures.incrementAndGet() >= ejectionThreshold) {
+                consecutiveFailures.set(0);
+                ejectedUntil = System.nanoTime() + ejectionTime;
+                ejected = true;
+                logger.log(Level.WARNING, String.format("Ejecting UnifiedPush Server node '%s' for %d ms", url,
+                        TimeUnit.NANOSECONDS.toMillis(ejectionTime)));
+            }
+        }
+
+        private void update(AtomicLong average, double sample) {
+            while (true) {
+                final long current = average.get();
+                final double value = Double.longBitsToDouble(current);
+                final double updated = Double.isNaN(value) ? sample : value + EWMA_WEIGHT * (sample - value);
+                if (average.compareAndSet(current, Double.doubleToRawLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The expected cost of sending a request to the node: its latency, times the requests it is already handling,
+         * divided by the probability that the request succeeds.
+         */
+        private double getCost() {
+            final double averageLatency = Double.longBitsToDouble(latency.get());
+            final double expectedLatency = (Double.isNaN(averageLatency) ? 0 : averageLatency) + BASE_LATENCY;
+            return expectedLatency * (outstandingRequests.get() + 1) / Math.max(0.01, 1 - getErrorRate());
+        }
+
+        private boolean isEjected(long now) {
+            if (ejected && now - ejectedUntil >= 0) {
+                ejected = false;
+            }
+            return ejected;
+        }
+
+        /**
+         * @return the root URL of the node
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the number of requests in flight to the node
+         */
+        public int getOutstandingRequests() {
+            return outstandingRequests.get();
+        }
+
+        /**
+         * @return the number of requests which failed in a row
+         */
+        public int getConsecutiveFailures() {
+            return consecutiveFailures.get();
+        }
+
+        /**
+         * @return the moving average of the node's response time in ms, or -1 if not measured yet
+         */
+        public double getLatency() {
+            final double averageLatency = Double.longBitsToDouble(latency.get());
+            return Double.isNaN(averageLatency) ? -1 : averageLatency / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return the moving average of the node's error rate, between 0 and 1
+         */
+        public double getErrorRate() {
+            return Double.longBitsToDouble(errorRate.get());
+        }
+
+        /**
+         * @return true if the node currently doesn't receive requests
+         */
+        public boolean isEjected() {
+            return isEjected(System.nanoTime());
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -21,12 +21,16 @@ import com.google.gson.Gson;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class PushConfiguration {
 
     private static final Logger logger = Logger.getLogger(PushConfiguration.class.getName());
     private String serverUrl;
+    private List<String> serverUrls;
     private String pushApplicationId;
     private String masterSecret;
 	private HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
@@ -58,6 +62,31 @@ public class PushConfiguration {
         this.serverUrl = serverUrl;
     }
 
+    /**
+     * Get the root URLs of all the nodes of a multi-node UnifiedPush Server deployment.
+     *
+     * @return the configured server URLs, or the single server URL if none
+     */
+    public List<String> getServerUrls() {
+        if (serverUrls == null || serverUrls.isEmpty()) {
+            return serverUrl == null ? Collections.<String>emptyList() : Collections.singletonList(serverUrl);
+        }
+        return serverUrls;
+    }
+
+    /**
+     * Set the root URLs of all the nodes of a multi-node UnifiedPush Server deployment, the first one also becomes the
+     * server URL.
+     *
+     * @param serverUrls the server URLs
+     */
+    public void setServerUrls(List<String> serverUrls) {
+        this.serverUrls = serverUrls == null ? null : Collections.unmodifiableList(new ArrayList<>(serverUrls));
+        if (serverUrls != null && !serverUrls.isEmpty()) {
+            this.serverUrl = serverUrls.get(0);
+        }
+    }
+
     public HttpRequestUtil.ConnectionSettings getConnectionSettings() {
         return connectionSettings;
     }
@@ -74,6 +103,13 @@ public class PushConfiguration {
                     new InputStreamReader(Thread.currentThread().getContextClassLoader().getResourceAsStream(location)));
             Gson gson = new Gson();
             pushConfiguration = gson.fromJson(bufferedReader, PushConfiguration.class);
+            if (pushConfiguration.serverUrls != null && !pushConfiguration.serverUrls.isEmpty()) {
+                final List<String> serverUrls = new ArrayList<>();
+                for (String serverUrl : pushConfiguration.serverUrls) {
+                    serverUrls.add(serverUrl.endsWith("/") ? serverUrl : serverUrl + '/');
+                }
+                pushConfiguration.setServerUrls(serverUrls);
+            }
             if(!pushConfiguration.getServerUrl().endsWith("/")) {
                 pushConfiguration.setServerUrl(pushConfiguration.getServerUrl() + '/');
             }
@@ -0,0 +1,34 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+/**
+ * Describes what the sender does with a message exceeding its {@link RateLimiter}.
+ */
+public enum RateLimitPolicy {
+
+    /**
+     * Blocking sends wait in the calling thread until the message can be sent. Asynchronous sends are delayed until
+     * then without blocking the calling thread.
+     */
+    BLOCK,
+
+    /**
+     * The message is rejected with a {@link org.jboss.aerogear.unifiedpush.exception.PushSenderRateLimitException}.
+     */
+    FAIL_FAST
+}
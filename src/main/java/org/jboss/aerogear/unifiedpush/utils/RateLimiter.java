@@ -0,0 +1,182 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the number of messages and bytes sent per second. Each bucket holds up to one second worth of
+ * permits, so short bursts are smoothed out rather than rejected.
+ * <p>
+ * Acquiring permits is lock-free: every bucket is a single {@link AtomicLong} holding the time at which it will be
+ * full again, permits are taken by moving that time forward with a compare-and-set.
+ */
+public class RateLimiter {
+
+    private static final ConcurrentMap<String, RateLimiter> PUSH_APPLICATION_LIMITERS = new ConcurrentHashMap<>();
+
+    private final double messagesPerSecond;
+    private final double bytesPerSecond;
+    private final Bucket messages;
+    private final Bucket bytes;
+
+    /**
+     * @param messagesPerSecond Maximum number of messages per second, {@code 0} for no limit.
+     * @param bytesPerSecond Maximum number of payload bytes per second, {@code 0} for no limit.
+     */
+    public RateLimiter(double messagesPerSecond, double bytesPerSecond) {
+        if (messagesPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("rates can not be negative");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        messages = new Bucket(messagesPerSecond);
+        bytes = new Bucket(bytesPerSecond);
+    }
+
+    /**
+     * Returns the rate limiter shared by all senders of the given PushApplication, creating it if needed. The rates
+     * of a shared limiter can't be changed, all senders of the PushApplication have to ask for the same rates.
+     *
+     * @param pushApplicationId The id of the PushApplication.
+     * @param messagesPerSecond Maximum number of messages per second, {@code 0} for no limit.
+     * @param bytesPerSecond Maximum number of payload bytes per second, {@code 0} for no limit.
+     * @return the {@link RateLimiter} of the PushApplication
+     * @throws IllegalArgumentException when the PushApplication is already limited to other rates.
+     */
+    public static RateLimiter forPushApplication(String pushApplicationId, double messagesPerSecond, double bytesPerSecond) {
+        if (pushApplicationId == null) {
+            throw new IllegalArgumentException("pushApplicationId can not be null");
+        }
+        final RateLimiter limiter = PUSH_APPLICATION_LIMITERS.computeIfAbsent(pushApplicationId,
+                id -> new RateLimiter(messagesPerSecond, bytesPerSecond));
+        if (Double.compare(limiter.messagesPerSecond, messagesPerSecond) != 0
+                || Double.compare(limiter.bytesPerSecond, bytesPerSecond) != 0) {
+            throw new IllegalArgumentException("PushApplication " + pushApplicationId + " is already limited to "
+                    + limiter.messagesPerSecond + " messages and " + limiter.bytesPerSecond + " bytes per second");
+        }
+        return limiter;
+    }
+
+    /**
+     * @return the maximum number of messages per second, {@code 0} for no limit
+     */
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * @return the maximum number of payload bytes per second, {@code 0} for no limit
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Takes the permits for the given messages if they are available right away.
+     *
+     * @param messageCount The number of messages.
+     * @param byteCount The size of their payload.
+     * @return true if the permits have been taken, false if sending the messages would exceed the limit
+     */
+    public boolean tryAcquire(int messageCount, long byteCount) {
+        if (!messages.tryAcquire(messageCount)) {
+            return false;
+        }
+        if (!bytes.tryAcquire(byteCount)) {
+            messages.refund(messageCount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the permits for the given messages, whether they are available or not. Permits are reserved in order,
+     * the caller has to wait for the returned delay before sending.
+     *
+     * @param messageCount The number of messages.
+     * @param byteCount The size of their payload.
+     * @return the time in ns to wait until the reserved permits become available, {@code 0} if they are available
+     */
+    public long reserve(int messageCount, long byteCount) {
+        return Math.max(messages.reserve(messageCount), bytes.reserve(byteCount));
+    }
+
+    private static final class Bucket {
+
+        private static final long CAPACITY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        /**
+         * The time at which the bucket is full again, it has been full for a while if in the past.
+         */
+        private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+        private final double nanosPerPermit;
+
+        private Bucket(double permitsPerSecond) {
+            nanosPerPermit = permitsPerSecond == 0 ? 0 : CAPACITY_NANOS / permitsPerSecond;
+        }
+
+        private boolean tryAcquire(long permits) {
+            final long cost = cost(permits);
+            if (cost == 0) {
+                return true;
+            }
+            while (true) {
+                final long now = System.nanoTime();
+                final long current = fullAt.get();
+                final long next = later(current, now) + cost;
+                // a full bucket lets any single request through, even one larger than its capacity
+                if (current - now > 0 && next - now > CAPACITY_NANOS) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        private long reserve(long permits) {
+            final long cost = cost(permits);
+            if (cost == 0) {
+                return 0;
+            }
+            while (true) {
+                final long now = System.nanoTime();
+                final long current = fullAt.get();
+                final long next = later(current, now) + cost;
+                if (fullAt.compareAndSet(current, next)) {
+                    return Math.max(0, next - now - CAPACITY_NANOS);
+                }
+            }
+        }
+
+        private void refund(long permits) {
+            fullAt.addAndGet(-cost(permits));
+        }
+
+        private long cost(long permits) {
+            return (long) (permits * nanosPerPermit);
+        }
+
+        private static long later(long time, long other) {
+            return time - other > 0 ? time : other;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the targets of permanent redirects for a limited time, so that later requests are sent to the target
+ * directly instead of being uploaded to the old URL first.
+ */
+public class RedirectCache {
+
+    /**
+     * Bounds the resolution of chained redirects, in case they form a loop.
+     */
+    private static final int MAX_REDIRECTS = 10;
+
+    private final long ttl;
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl Time in ms a redirect target is remembered.
+     */
+    public RedirectCache(long ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be greater than zero");
+        }
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Resolves the given URL, following the remembered redirects.
+     *
+     * @param url The requested URL.
+     * @return the URL the request should be sent to, the given one if it isn't redirected
+     */
+    public String resolve(String url) {
+        final long now = System.nanoTime();
+        String resolved = url;
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            final Target target = targets.get(resolved);
+            if (target == null) {
+                break;
+            }
+            if (now - target.expiresAt >= 0) {
+                targets.remove(resolved, target);
+                break;
+            }
+            resolved = target.url;
+        }
+        return resolved;
+    }
+
+    /**
+     * Remembers that the given URL is permanently redirected.
+     *
+     * @param url The redirected URL.
+     * @param target The target of the redirect.
+     */
+    public void put(String url, String target) {
+        if (!url.equals(target)) {
+            targets.put(url, new Target(target, System.nanoTime() + ttl));
+        }
+    }
+
+    /**
+     * Forgets the redirect of the given URL, e.g. after the target failed.
+     *
+     * @param url The redirected URL.
+     */
+    public void evict(String url) {
+        targets.remove(url);
+    }
+
+    /**
+     * @return the number of remembered redirects, including expired ones not evicted yet
+     */
+    public int size() {
+        return targets.size();
+    }
+
+    private static final class Target {
+
+        private final String url;
+        private final long expiresAt;
+
+        private Target(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
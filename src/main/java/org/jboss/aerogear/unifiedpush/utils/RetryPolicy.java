@@ -0,0 +1,302 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.aerogear.unifiedpush.exception.PushSenderCircuitOpenException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException;
+
+/**
+ * Describes which failed requests are retried and when. Retries are delayed with an exponential backoff, randomized by
+ * the jitter so that senders failing at the same time don't retry in lockstep.
+ * <p>
+ * By default requests are attempted at most {@value #DEFAULT_MAX_ATTEMPTS} times, on the 429 and 503 status codes and
+ * on the I/O errors raised while connecting, before the request could reach the server. Read timeouts and other
+ * failures happening once the request has been sent aren't retried by default, the server may have accepted the
+ * message already and retrying it would deliver it twice.
+ */
+public final class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 100;
+    public static final long DEFAULT_MAX_BACKOFF = 10000;
+    public static final double DEFAULT_JITTER = 0.5;
+    public static final long DEFAULT_MAX_RETRY_AFTER = 60000;
+
+    private final int maxAttempts;
+    private final Set<Integer> statusCodes;
+    private final List<Class<? extends Throwable>> exceptionTypes;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double jitter;
+    private final long deadline;
+    private final long maxRetryAfter;
+
+    private RetryPolicy(Builder builder) {
+        maxAttempts = builder.maxAttempts;
+        statusCodes = Collections.unmodifiableSet(new HashSet<>(builder.statusCodes));
+        exceptionTypes = Collections.unmodifiableList(new ArrayList<>(builder.exceptionTypes));
+        initialBackoff = builder.initialBackoff;
+        maxBackoff = builder.maxBackoff;
+        jitter = builder.jitter;
+        deadline = builder.deadline;
+        maxRetryAfter = builder.maxRetryAfter;
+    }
+
+    /**
+     * Starts a {@link Builder} by providing the maximum number of attempts per request.
+     *
+     * @param maxAttempts Maximum number of attempts, including the first one.
+     * @return a {@link Builder} instance
+     */
+    public static Builder withMaxAttempts(int maxAttempts) {
+        return new Builder().maxAttempts(maxAttempts);
+    }
+
+    /**
+     * @return a {@link RetryPolicy} using the default settings
+     */
+    public static RetryPolicy defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Tells whether the request which failed with the given exception should be attempted again. The backoff is
+     * extended to the {@code Retry-After} delay returned by the server, if longer. Without a deadline, that delay is
+     * capped to {@link #getMaxRetryAfter()}.
+     *
+     * @param attempt The number of the failed attempt, starting at 1.
+     * @param failure The failure of the attempt.
+     * @param elapsedTime The time in ms elapsed since the first attempt started.
+     * @return the time in ms to wait before the next attempt, or {@code -1} if the request shouldn't be retried
+     */
+    public long getRetryDelay(int attempt, Throwable failure, long elapsedTime) {
+        if (attempt >= maxAttempts || !isRetryable(failure)) {
+            return -1;
+        }
+        long delay = getBackoff(attempt);
+        if (failure instanceof PushSenderHttpException) {
+            // the server knows best when it will have recovered
+            long retryAfter = ((PushSenderHttpException) failure).getRetryAfter();
+            if (deadline == 0) {
+                // nothing else bounds how long the request is held
+                retryAfter = Math.min(retryAfter, maxRetryAfter);
+            }
+            delay = Math.max(delay, retryAfter);
+        }
+        // compared without adding, a huge Retry-After would overflow
+        if (deadline > 0 && delay > deadline - elapsedTime) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * @param failure The failure of an attempt.
+     * @return true if the failure is caused by a retryable status code or exception, never for a
+     *         {@link PushSenderCircuitOpenException}
+     */
+    public boolean isRetryable(Throwable failure) {
+        if (failure instanceof PushSenderCircuitOpenException) {
+            // never sent, retrying would only hammer the open circuit breaker
+            return false;
+        }
+        if (failure instanceof PushSenderHttpException) {
+            return statusCodes.contains(((PushSenderHttpException) failure).getStatusCode());
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            for (Class<? extends Throwable> exceptionType : exceptionTypes) {
+                if (exceptionType.isInstance(cause)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private long getBackoff(int attempt) {
+        // the double arithmetic saturates instead of overflowing
+        final long backoff = Math.min(maxBackoff, (long) (initialBackoff * Math.pow(2, attempt - 1)));
+        return backoff - (long) (backoff * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Set<Integer> getStatusCodes() {
+        return statusCodes;
+    }
+
+    public List<Class<? extends Throwable>> getExceptionTypes() {
+        return exceptionTypes;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * A builder to make it easier to construct {@link RetryPolicy} instances.
+     */
+    public static final class Builder {
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private Set<Integer> statusCodes = new HashSet<>(Arrays.asList(429, 503));
+        // the request can't have reached the server
+        private List<Class<? extends Throwable>> exceptionTypes = new ArrayList<>(Arrays.<Class<? extends Throwable>>asList(
+                ConnectException.class, NoRouteToHostException.class, UnknownHostException.class));
+        private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private long maxBackoff = DEFAULT_MAX_BACKOFF;
+        private double jitter = DEFAULT_JITTER;
+        private long deadline;
+        private long maxRetryAfter = DEFAULT_MAX_RETRY_AFTER;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts Maximum number of attempts per request, including the first one.
+         * @return the current {@link Builder} instance
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Replaces the HTTP status codes which are retried.
+         *
+         * @param statusCodes The retryable status codes.
+         * @return the current {@link Builder} instance
+         */
+        public Builder retryOnStatusCodes(Integer... statusCodes) {
+            this.statusCodes = new HashSet<>(Arrays.asList(statusCodes));
+            return this;
+        }
+
+        /**
+         * Replaces the exception types which are retried. A failure is retried if any exception of its cause chain
+         * is an instance of one of the given types. Only retry failures which may happen after the request has been
+         * sent, e.g. {@link java.net.SocketTimeoutException}, if delivering a message twice is acceptable.
+         *
+         * @param exceptionTypes The retryable exception types.
+         * @return the current {@link Builder} instance
+         */
+        @SafeVarargs
+        public final Builder retryOn(Class<? extends Throwable>... exceptionTypes) {
+            this.exceptionTypes = new ArrayList<>(exceptionTypes.length);
+            for (Class<? extends Throwable> exceptionType : exceptionTypes) {
+                this.exceptionTypes.add(exceptionType);
+            }
+            return this;
+        }
+
+        /**
+         * The delay before the n-th retry is {@code initialBackoff * 2^(n-1)}, capped to {@code maxBackoff}.
+         *
+         * @param initialBackoff The delay in ms before the first retry.
+         * @param maxBackoff The maximum delay in ms between two attempts.
+         * @return the current {@link Builder} instance
+         */
+        public Builder backoff(long initialBackoff, long maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * @param jitter The fraction of the backoff randomly taken off every delay, between {@code 0} (no jitter) and
+         *               {@code 1} (full jitter). Defaults to {@value #DEFAULT_JITTER}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder jitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param deadline Time in ms after the first attempt past which no further attempt is started, {@code 0}
+         *                 for no deadline.
+         * @return the current {@link Builder} instance
+         */
+        public Builder deadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * @param maxRetryAfter Maximum time in ms to wait for the {@code Retry-After} delay returned by the server
+         *                      when no deadline is set. Defaults to {@value #DEFAULT_MAX_RETRY_AFTER}.
+         * @return the current {@link Builder} instance
+         */
+        public Builder maxRetryAfter(long maxRetryAfter) {
+            this.maxRetryAfter = maxRetryAfter;
+            return this;
+        }
+
+        /**
+         * Build the {@link RetryPolicy}.
+         *
+         * @return the built up {@link RetryPolicy}
+         */
+        public RetryPolicy build() {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be greater than zero");
+            }
+            if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+                throw new IllegalArgumentException("backoff must be positive and not exceed maxBackoff");
+            }
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+            if (deadline < 0) {
+                throw new IllegalArgumentException("deadline can not be negative");
+            }
+            if (maxRetryAfter < 0) {
+                throw new IllegalArgumentException("maxRetryAfter can not be negative");
+            }
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+
+import org.jboss.aerogear.unifiedpush.ca.TrustStoreManagerService;
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.utils.GzipOutputStream;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+
+/**
+ * Non-blocking {@link Transport} built on {@code java.net.http.HttpClient}.
+ * <p>
+ * Requests are written and responses read by the client's selector thread, so a handful of threads serve any number
+ * of requests in flight. Connections are kept alive and reused by the client.
+ * <p>
+ * With {@link ConnectionMode#HTTP2} the client negotiates HTTP/2 (through ALPN on https, with an {@code h2c} upgrade
+ * on http), multiplexing all requests to a host over one connection and HPACK compressing the headers repeated on
+ * every request. Servers which don't support HTTP/2 are still spoken to using HTTP/1.1.
+ * <p>
+ * The client is bound to the {@link SSLContext} of the custom trustStore. Once the trustStore got reloaded by the
+ * {@link TrustStoreManagerService}, a new client is built for the following requests, while the requests in flight
+ * complete on the previous one.
+ * <p>
+ * Streamed payloads are written by the calling thread into a bounded pipe, read by the client while it sends them, so
+ * a batch is never held in memory as a whole. Only through a proxy requiring credentials, they are buffered, as the
+ * client may have to send the request again once the proxy asked for the credentials.
+ * <p>
+ * The JDK disables Basic authentication for proxy tunnels by default, see the
+ * {@code jdk.http.auth.tunneling.disabledSchemes} system property. Unless it has been enabled, sending https requests
+ * through an HTTP proxy requiring credentials fails with an {@link IllegalStateException} instead of being rejected
+ * by the proxy.
+ */
+public class HttpClientTransport implements Transport {
+
+    private static final String TUNNELING_DISABLED_SCHEMES = "jdk.http.auth.tunneling.disabledSchemes";
+
+    private static final int PIPE_SIZE = 8192;
+
+    private final HttpClient.Builder builder;
+    private final TrustStoreConfig customTrustStore;
+    private final Duration readTimeout;
+    private final HttpRequestUtil.ConnectionSettings connectionSettings;
+    private final boolean tunnelAuthenticationDisabled;
+    private final boolean proxyAuthentication;
+
+    private volatile Client client;
+    private volatile boolean closed;
+
+    public HttpClientTransport(ProxyConfig proxy, TrustStoreConfig customTrustStore,
+                               HttpRequestUtil.ConnectionSettings connectionSettings) {
+        builder = HttpClient.newBuilder()
+                .version(connectionSettings.getConnectionMode() == ConnectionMode.HTTP2
+                        ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                // redirects are handled by the sender
+                .followRedirects(HttpClient.Redirect.NEVER);
+
+        if (connectionSettings.getConnectTimeout() != null) {
+            builder.connectTimeout(Duration.ofMillis(connectionSettings.getConnectTimeout()));
+        }
+        readTimeout = connectionSettings.getReadTimeout() != null ? Duration.ofMillis(connectionSettings.getReadTimeout()) : null;
+        this.connectionSettings = connectionSettings;
+        this.customTrustStore = customTrustStore != null && customTrustStore.getTrustStorePath() != null ? customTrustStore : null;
+        boolean tunnelAuthenticationDisabled = false;
+        boolean proxyAuthentication = false;
+
+        if (proxy != null && proxy.getProxyHost() != null && proxy.getProxyType() != Proxy.Type.DIRECT) {
+            if (proxy.getProxyType() != Proxy.Type.HTTP) {
+                throw new IllegalArgumentException("HttpClientTransport only supports HTTP proxies");
+            }
+            // re-resolves the proxy host once the cached address expired, instead of pinning the first lookup
+            builder.proxy(new ProxySelector() {
+                @Override
+                public List<Proxy> select(URI uri) {
+                    return Collections.singletonList(connectionSettings.getProxy(proxy));
+                }
+
+                @Override
+                public void connectFailed(URI uri, SocketAddress address, IOException e) {
+                    // no-op, there is no other proxy to fall back to
+                }
+            });
+            if (proxy.getProxyUser() != null) {
+                // scoped to this client, unlike Authenticator.setDefault
+                final PasswordAuthentication credentials = new PasswordAuthentication(proxy.getProxyUser(),
+                        proxy.getProxyPassword() == null ? new char[0] : proxy.getProxyPassword().toCharArray());
+                builder.authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return getRequestorType() == RequestorType.PROXY ? credentials : null;
+                    }
+                });
+                tunnelAuthenticationDisabled = isBasicDisabled(System.getProperty(TUNNELING_DISABLED_SCHEMES, "Basic"));
+                proxyAuthentication = true;
+            }
+        }
+        this.tunnelAuthenticationDisabled = tunnelAuthenticationDisabled;
+        this.proxyAuthentication = proxyAuthentication;
+
+        try {
+            client = new Client(getSSLContext());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not load the custom trustStore", e);
+        }
+    }
+
+    /**
+     * @return true if the running JVM provides {@code java.net.http.HttpClient}
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    public TransportResponse post(String url, String encodedCredentials, byte[] payload) throws Exception {
+        final HttpRequest request = buildRequest(url, encodedCredentials, payload);
+        return toTransportResponse(getHttpClient().send(request, HttpResponse.BodyHandlers.discarding()));
+    }
+
+    /**
+     * Streams the payload using chunked transfer encoding on HTTP/1.1, or as DATA frames on HTTP/2.
+     */
+    @Override
+    public TransportResponse postStreaming(String url, String encodedCredentials, PayloadWriter payload) throws Exception {
+        if (payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        if (proxyAuthentication) {
+            // a piped body can't be sent again after a 407
+            return Transport.super.postStreaming(url, encodedCredentials, payload);
+        }
+        final PipedInputStream body = new PipedInputStream(PIPE_SIZE);
+        final PipedOutputStream out = new PipedOutputStream(body);
+        final AtomicBoolean subscribed = new AtomicBoolean();
+        final boolean compressed = connectionSettings.isCompressed(-1);
+        final HttpRequest request = buildRequest(url, encodedCredentials, HttpRequest.BodyPublishers.ofInputStream(() -> {
+            if (!subscribed.compareAndSet(false, true)) {
+                throw new IllegalStateException("The streamed payload can't be sent again");
+            }
+            return body;
+        }), compressed);
+
+        final CompletableFuture<HttpResponse<Void>> response = getHttpClient()
+                .sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        // a response received before the whole payload was read, e.g. a 401, fails the blocked writes
+        response.whenComplete((result, failure) -> closeQuietly(body));
+        try {
+            write(payload, out, compressed);
+        } catch (IOException | RuntimeException e) {
+            if (!response.isDone()) {
+                response.cancel(true);
+                throw e;
+            }
+            // the server answered without reading the whole payload, its response is reported
+        }
+        try {
+            return toTransportResponse(response.get());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> postAsync(String url, String encodedCredentials, byte[] payload) {
+        final HttpRequest request;
+        final HttpClient httpClient;
+        try {
+            request = buildRequest(url, encodedCredentials, payload);
+            httpClient = getHttpClient();
+        } catch (Exception e) {
+            final CompletableFuture<TransportResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(HttpClientTransport::toTransportResponse);
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Closes the client, on Java 21 or later after the requests in flight completed. On older runtimes the client has
+     * no way to be closed, its connections and selector thread are released once it has been garbage collected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Client current = client;
+        client = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * @return the client trusting the current {@link SSLContext} of the custom trustStore
+     */
+    private HttpClient getHttpClient() throws IOException {
+        Client current = client;
+        if (closed || current == null) {
+            throw new IllegalStateException("Transport has been closed");
+        }
+        final SSLContext sslContext = getSSLContext();
+        if (current.sslContext != sslContext) {
+            synchronized (this) {
+                current = client;
+                if (current == null) {
+                    throw new IllegalStateException("Transport has been closed");
+                }
+                if (current.sslContext != sslContext) {
+                    // the previous client is left to complete its requests in flight and then to be collected
+                    current = new Client(sslContext);
+                    client = current;
+                }
+            }
+        }
+        return current.httpClient;
+    }
+
+    private SSLContext getSSLContext() throws IOException {
+        if (customTrustStore == null) {
+            return null;
+        }
+        try {
+            // cached and reloaded by the service
+            return TrustStoreManagerService.getInstance().getSSLContext(customTrustStore);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not load the custom trustStore", e);
+        }
+    }
+
+    private static boolean isBasicDisabled(String disabledSchemes) {
+        for (String scheme : disabledSchemes.split(",")) {
+            if ("Basic".equalsIgnoreCase(scheme.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HttpRequest buildRequest(String url, String encodedCredentials, byte[] payload) {
+        if (url == null || encodedCredentials == null || payload == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        final boolean compressed = connectionSettings.isCompressed(payload.length);
+        return buildRequest(url, encodedCredentials,
+                HttpRequest.BodyPublishers.ofByteArray(compressed ? GzipOutputStream.compress(payload) : payload), compressed);
+    }
+
+    private HttpRequest buildRequest(String url, String encodedCredentials, HttpRequest.BodyPublisher body,
+                                     boolean compressed) {
+        if (url == null || encodedCredentials == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        if (tunnelAuthenticationDisabled && url.regionMatches(true, 0, "https:", 0, 6)) {
+            throw new IllegalStateException("Basic authentication to the proxy is disabled for https tunnels by the "
+                    + TUNNELING_DISABLED_SCHEMES + " system property, set it to an empty value or use ConnectionMode.POOLED");
+        }
+        final HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .POST(body)
+                .header("Authorization", "Basic " + encodedCredentials)
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json, text/plain")
+                // custom header, for UPS
+                .header("aerogear-sender", "AeroGear Java Sender");
+        if (compressed) {
+            request.header("Content-Encoding", "gzip");
+        }
+        if (readTimeout != null) {
+            request.timeout(readTimeout);
+        }
+        return request.build();
+    }
+
+    private static void write(PayloadWriter payload, OutputStream out, boolean compressed) throws IOException {
+        try (OutputStream body = out) {
+            if (compressed) {
+                final GzipOutputStream gzip = new GzipOutputStream(body);
+                try {
+                    payload.writeTo(gzip);
+                    gzip.finish();
+                } finally {
+                    gzip.discard();
+                }
+            } else {
+                // the pipe synchronizes every write, which are small while serializing
+                final OutputStream buffered = new BufferedOutputStream(body, PIPE_SIZE);
+                payload.writeTo(buffered);
+                buffered.flush();
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * A client along with the {@link SSLContext} it was built with.
+     */
+    private final class Client {
+
+        private final SSLContext sslContext;
+        private final HttpClient httpClient;
+
+        private Client(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            synchronized (builder) {
+                if (sslContext != null) {
+                    builder.sslContext(sslContext);
+                }
+                this.httpClient = builder.build();
+            }
+        }
+
+        private void close() {
+            // HttpClient implements AutoCloseable as of Java 21
+            if (httpClient instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) httpClient).close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static TransportResponse toTransportResponse(HttpResponse<?> response) {
+        final Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return new TransportResponse(response.statusCode(), headers);
+    }
+}
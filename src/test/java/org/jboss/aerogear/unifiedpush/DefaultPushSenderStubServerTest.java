@@ -0,0 +1,373 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderShardException;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.transport.ConnectionMode;
+import org.jboss.aerogear.unifiedpush.transport.HttpClientTransport;
+import org.jboss.aerogear.unifiedpush.transport.PooledTransport;
+import org.jboss.aerogear.unifiedpush.transport.Transport;
+import org.jboss.aerogear.unifiedpush.transport.TransportResponse;
+import org.jboss.aerogear.unifiedpush.utils.CircuitBreaker;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+import org.jboss.aerogear.unifiedpush.utils.RateLimiter;
+import org.jboss.aerogear.unifiedpush.utils.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends messages through the whole stack to a {@link StubPushServer}.
+ */
+public class DefaultPushSenderStubServerTest {
+
+    private static final Logger logger = Logger.getLogger(DefaultPushSenderStubServerTest.class.getName());
+
+    private static final UnifiedMessage MESSAGE = UnifiedMessage.withMessage()
+            .alert("Hello from Java Sender API!")
+            .criteria().aliases("mike", "john")
+            .build();
+
+    private StubPushServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = StubPushServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sendsMessagesAndBatches() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).build()) {
+            pushSender.send(MESSAGE);
+            assertTrue(server.getLastPayload().contains("\"mike\""));
+
+            pushSender.send(Arrays.asList(MESSAGE, MESSAGE), null);
+            assertTrue(server.getLastPayload().startsWith("["));
+        }
+        assertEquals(1, server.getAcceptedMessages());
+        assertEquals(1, server.getAcceptedBatches());
+    }
+
+    @Test
+    public void streamsBatchWithChunkedBody() throws Exception {
+        final List<UnifiedMessage> batch = Arrays.asList(MESSAGE, MESSAGE, MESSAGE);
+        try (DefaultPushSender pushSender = builder(server).build()) {
+            pushSender.sendAsync(batch).get(10, TimeUnit.SECONDS);
+            final String bufferedPayload = server.getLastPayload();
+
+            pushSender.send(batch, null);
+            assertEquals(1, server.getChunkedRequests());
+            // streamed and buffered batches are serialized the same way
+            assertEquals(bufferedPayload, server.getLastPayload());
+            assertEquals("[" + MESSAGE.getObject().toJsonString() + "," + MESSAGE.getObject().toJsonString() + ","
+                    + MESSAGE.getObject().toJsonString() + "]", server.getLastPayload());
+        }
+        assertEquals(2, server.getAcceptedBatches());
+    }
+
+    @Test
+    public void serializesStreamedBatchAgainOnRetry() throws Exception {
+        final List<UnifiedMessage> batch = Arrays.asList(MESSAGE, MESSAGE);
+        server.failNext(503, 2);
+        server.setRetryAfter(0);
+        try (DefaultPushSender pushSender = builder(server)
+                .retryPolicy(RetryPolicy.withMaxAttempts(3).backoff(1, 10).build())
+                .build()) {
+            pushSender.send(batch, null);
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(3, server.getChunkedRequests());
+        assertEquals(1, server.getAcceptedBatches());
+        assertEquals("[" + MESSAGE.getObject().toJsonString() + "," + MESSAGE.getObject().toJsonString() + "]",
+                server.getLastPayload());
+    }
+
+    @Test
+    public void shardsFrozenMessage() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).criteriaShardSize(1).build()) {
+            pushSender.send(MESSAGE.freeze());
+            assertEquals(202, pushSender.sendAsync(MESSAGE.freeze()).get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        // one request per alias
+        assertEquals(4, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void reportsFailedShards() throws Exception {
+        server.failNext(500, 2);
+        try (DefaultPushSender pushSender = builder(server)
+                .criteriaShardSize(1)
+                .retryPolicy(RetryPolicy.withMaxAttempts(1).build())
+                .build()) {
+            pushSender.send(MESSAGE.freeze());
+            fail("the shards should have failed");
+        } catch (PushSenderShardException e) {
+            assertEquals(2, e.getShardCount());
+            assertEquals(2, e.getFailedShards().size());
+            assertEquals(2, e.getShardFailures().size());
+            assertSame(e.getShardFailures().get(0), e.getCause());
+            assertArrayEquals(new Throwable[] { e.getShardFailures().get(1) }, e.getSuppressed());
+            // the failures of the shards are left untouched
+            for (Throwable shardFailure : e.getShardFailures()) {
+                assertEquals(0, shardFailure.getSuppressed().length);
+            }
+        }
+    }
+
+    @Test
+    public void chargesBytesOfStreamedBatch() throws Exception {
+        final RateLimiter rateLimiter = new RateLimiter(0, 100);
+        try (DefaultPushSender pushSender = builder(server).rateLimiter(rateLimiter).build()) {
+            pushSender.send(Arrays.asList(MESSAGE, MESSAGE), null);
+        }
+        assertEquals(1, server.getChunkedRequests());
+        // the streamed bytes exceed the limit, the following sends have to wait
+        assertFalse(rateLimiter.tryAcquire(0, 1));
+    }
+
+    @Test
+    public void delaysRateLimitedSendAsyncWithoutBlocking() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).rateLimiter(new RateLimiter(2, 0)).build()) {
+            final List<CompletableFuture<PushResult>> results = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < 4; i++) {
+                results.add(pushSender.sendAsync(MESSAGE));
+            }
+            // the last message waits a second for its permit, not the calling thread
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertFalse(results.get(3).isDone());
+            for (CompletableFuture<PushResult> result : results) {
+                assertEquals(202, result.get(10, TimeUnit.SECONDS).getStatusCode());
+            }
+        }
+        assertEquals(4, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void pausesForRetryAfterOfOverloadedServer() throws Exception {
+        server.failNext(429, 1);
+        server.setRetryAfter(1);
+        try (DefaultPushSender pushSender = builder(server).adaptiveConcurrency(true).build()) {
+            try {
+                pushSender.send(MESSAGE);
+                fail("the message should have been rejected");
+            } catch (PushSenderHttpException e) {
+                assertEquals(429, e.getStatusCode());
+            }
+            final long start = System.nanoTime();
+            final CompletableFuture<PushResult> result = pushSender.sendAsync(MESSAGE);
+            // blocking sends wait for the same pause
+            pushSender.send(MESSAGE);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+            assertEquals(202, result.get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(2, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void releasesTrialPermitOnUnexpectedError() throws Exception {
+        final CircuitBreaker circuitBreaker = CircuitBreaker.withFailureRateThreshold(1)
+                .slidingWindowSize(1)
+                .minimumCalls(1)
+                .openDuration(10)
+                .halfOpenCalls(1)
+                .build();
+        circuitBreaker.tryAcquirePermission().onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Thread.sleep(20);
+
+        final Transport failingTransport = new Transport() {
+            @Override
+            public TransportResponse post(String url, String encodedCredentials, byte[] payload) {
+                throw new LinkageError("unexpected");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (DefaultPushSender pushSender = builder(server).transport(failingTransport).circuitBreaker(circuitBreaker).build()) {
+            pushSender.send(MESSAGE);
+            fail("the transport should have failed");
+        } catch (LinkageError e) {
+            // the outcome of the trial request has been recorded
+            assertNotNull(circuitBreaker.tryAcquirePermission());
+        }
+    }
+
+    @Test
+    public void coalescesSingleSendsIntoBatch() throws Exception {
+        final List<CompletableFuture<PushResult>> results = new ArrayList<>();
+        try (DefaultPushSender pushSender = builder(server).maxBatchSize(5).batchLingerTime(60000).build()) {
+            for (int i = 0; i < 5; i++) {
+                results.add(pushSender.sendAsync(MESSAGE));
+            }
+            for (CompletableFuture<PushResult> result : results) {
+                assertEquals(202, result.get(10, TimeUnit.SECONDS).getStatusCode());
+            }
+        }
+        assertEquals(1, server.getRequests());
+        assertEquals(1, server.getAcceptedBatches());
+        assertEquals(0, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void rejectsWrongCredentials() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).masterSecret("wrong").build()) {
+            pushSender.send(MESSAGE);
+            fail("the message should have been rejected");
+        } catch (PushSenderHttpException e) {
+            assertEquals(401, e.getStatusCode());
+        }
+        assertEquals(0, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void retriesInjectedErrors() throws Exception {
+        server.failNext(429, 2);
+        server.setRetryAfter(0);
+        try (DefaultPushSender pushSender = builder(server)
+                .retryPolicy(RetryPolicy.withMaxAttempts(3).backoff(1, 10).build())
+                .build()) {
+            pushSender.send(MESSAGE);
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(1, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void remembersPermanentRedirect() throws Exception {
+        try (StubPushServer target = StubPushServer.start();
+             DefaultPushSender pushSender = builder(server).build()) {
+            server.redirectTo(target.getRootServerURL(), 308);
+            pushSender.send(MESSAGE);
+            pushSender.send(MESSAGE);
+
+            assertEquals(1, server.getRequests());
+            assertEquals(2, target.getAcceptedMessages());
+        }
+    }
+
+    @Test
+    public void compressesLargePayloads() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).compressionThreshold(1).build()) {
+            pushSender.send(MESSAGE);
+        }
+        assertEquals(1, server.getCompressedRequests());
+        assertTrue(server.getLastPayload().contains("\"mike\""));
+    }
+
+    @Test
+    public void sendsOverTls() throws Exception {
+        try (StubPushServer secureServer = StubPushServer.startSecure()) {
+            final TrustStoreConfig trustStore = secureServer.getTrustStore();
+            try (DefaultPushSender pushSender = builder(secureServer)
+                    .customTrustStore(trustStore.getTrustStorePath(), trustStore.getTrustStoreType(),
+                            trustStore.getTrustStorePassword())
+                    .build()) {
+                pushSender.send(MESSAGE);
+            }
+            assertEquals(1, secureServer.getAcceptedMessages());
+        }
+    }
+
+    @Test
+    public void rejectsNonBlockingModeWithoutHttpClient() {
+        // the unit tests run against the Java 8 classes, the HttpClient transport is tested by DefaultPushSenderHttpClientIT
+        assumeFalse(HttpClientTransport.isSupported());
+        try {
+            builder(server).connectionMode(ConnectionMode.NON_BLOCKING).build();
+            fail("ConnectionMode.NON_BLOCKING requires Java 11");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Java 11"));
+        }
+    }
+
+    @Test
+    public void evictsExpiredPooledConnectionsWhileIdle() throws Exception {
+        final HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setIdleConnectionTimeout(200);
+        final AtomicInteger evictions = new AtomicInteger();
+        final CountDownLatch evicted = new CountDownLatch(2);
+        final PooledTransport transport = new PooledTransport(null, null, connectionSettings) {
+            @Override
+            public void closeExpiredConnections() {
+                super.closeExpiredConnections();
+                evictions.incrementAndGet();
+                evicted.countDown();
+            }
+        };
+
+        try (DefaultPushSender pushSender = builder(server).transport(transport).build()) {
+            pushSender.send(MESSAGE);
+            // runs without any further send
+            assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        }
+        final int evictionsOnClose = evictions.get();
+        Thread.sleep(300);
+        assertEquals(evictionsOnClose, evictions.get());
+    }
+
+    @Test
+    public void sustainsLoad() throws Exception {
+        final int threads = 8;
+        final int messagesPerThread = 100;
+        server.setLatency(1, 5);
+
+        final SendLoad load;
+        try (DefaultPushSender pushSender = builder(server).connectionMode(ConnectionMode.POOLED).build()) {
+            load = SendLoad.send(pushSender, MESSAGE, threads, messagesPerThread);
+        }
+
+        logger.info(load.toString());
+        assertEquals(threads * messagesPerThread, server.getAcceptedMessages());
+        assertTrue("p99 latency of " + load.getLatency(0.99) + " ms",
+                load.getLatency(0.99) < SendLoad.MAX_P99_LATENCY);
+    }
+
+    private static DefaultPushSender.Builder builder(StubPushServer server) {
+        return DefaultPushSender.withRootServerURL(server.getRootServerURL())
+                .pushApplicationId(StubPushServer.PUSH_APPLICATION_ID)
+                .masterSecret(StubPushServer.MASTER_SECRET);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jboss.aerogear.unifiedpush.message.FrozenMessage;
+import org.jboss.aerogear.unifiedpush.message.MessageResponseCallback;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.junit.Test;
+
+public class PushSenderTest {
+
+    @Test
+    public void sendsFrozenMessageWithCallback() {
+        final RecordingPushSender pushSender = new RecordingPushSender();
+        final FrozenMessage frozenMessage = UnifiedMessage.withMessage().alert("Hello").build().freeze();
+        final AtomicBoolean completed = new AtomicBoolean();
+
+        pushSender.send(frozenMessage, () -> completed.set(true));
+        assertSame(frozenMessage, pushSender.frozen.get(0));
+        assertTrue(completed.get());
+    }
+
+    /**
+     * Implements only the abstract methods of {@link PushSender}.
+     */
+    private static final class RecordingPushSender implements PushSender {
+
+        private final List<FrozenMessage> frozen = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void send(UnifiedMessage unifiedMessage, MessageResponseCallback callback) {
+            send(unifiedMessage.freeze(), callback);
+        }
+
+        @Override
+        public void send(List<UnifiedMessage> unifiedMessages, MessageResponseCallback callback) {
+            for (UnifiedMessage unifiedMessage : unifiedMessages) {
+                send(unifiedMessage, callback);
+            }
+        }
+
+        @Override
+        public void send(UnifiedMessage unifiedMessage) {
+            send(unifiedMessage, () -> { });
+        }
+
+        @Override
+        public void send(FrozenMessage frozenMessage) {
+            frozen.add(frozenMessage);
+        }
+
+        @Override
+        public String getServerURL() {
+            return "http://localhost/ag-push/";
+        }
+
+        @Override
+        public ProxyConfig getProxy() {
+            return null;
+        }
+
+        @Override
+        public TrustStoreConfig getCustomTrustStore() {
+            return null;
+        }
+
+        @Override
+        public String getPushApplicationId() {
+            return null;
+        }
+
+        @Override
+        public String getMasterSecret() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+
+/**
+ * Load generator for the tests against a {@link StubPushServer}, recording the latency of every send.
+ */
+public final class SendLoad {
+
+    /**
+     * Bound of the p99 latency in ms expected from the load tests, with a server answering within 5 ms. It leaves
+     * room for slow and busy build machines, while still catching sends queueing behind each other.
+     */
+    public static final double MAX_P99_LATENCY = 250;
+
+    private final List<Long> latencies;
+    private final long elapsed;
+
+    private SendLoad(List<Long> latencies, long elapsed) {
+        this.latencies = new ArrayList<>(latencies);
+        Collections.sort(this.latencies);
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Sends the message with {@link PushSender#send(UnifiedMessage)} from the given number of threads at once.
+     *
+     * @param pushSender The sender.
+     * @param message The message to send.
+     * @param threads The number of threads sending.
+     * @param messagesPerThread The number of messages sent by every thread, one after the other.
+     * @return the recorded load
+     * @throws Exception when a send failed.
+     */
+    public static SendLoad send(PushSender pushSender, UnifiedMessage message, int threads, int messagesPerThread)
+            throws Exception {
+        final ExecutorService senders = Executors.newFixedThreadPool(threads);
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final long start = System.nanoTime();
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(senders.submit(() -> {
+                    for (int j = 0; j < messagesPerThread; j++) {
+                        final long sent = System.nanoTime();
+                        pushSender.send(message);
+                        latencies.add(System.nanoTime() - sent);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            senders.shutdownNow();
+        }
+        return new SendLoad(latencies, System.nanoTime() - start);
+    }
+
+    /**
+     * Sends the message with {@link DefaultPushSender#sendAsync(UnifiedMessage)}, keeping the given number of sends in flight.
+     *
+     * @param pushSender The sender.
+     * @param message The message to send.
+     * @param inFlight The number of sends in flight at the same time.
+     * @param messages The number of messages sent in total.
+     * @return the recorded load
+     * @throws Exception when a send failed.
+     */
+    public static SendLoad sendAsync(DefaultPushSender pushSender, UnifiedMessage message, int inFlight, int messages)
+            throws Exception {
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final List<CompletableFuture<PushResult>> pending = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            if (pending.size() == inFlight) {
+                pending.remove(0).get(60, TimeUnit.SECONDS);
+            }
+            final long sent = System.nanoTime();
+            pending.add(pushSender.sendAsync(message)
+                    .whenComplete((result, failure) -> latencies.add(System.nanoTime() - sent)));
+        }
+        for (CompletableFuture<PushResult> result : pending) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+        return new SendLoad(latencies, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the number of messages sent per second
+     */
+    public long getThroughput() {
+        return TimeUnit.SECONDS.toNanos(latencies.size()) / elapsed;
+    }
+
+    /**
+     * @param percentile The percentile, e.g. {@code 0.99}.
+     * @return the latency of the given percentile of the sends in ms
+     */
+    public double getLatency(double percentile) {
+        return latencies.get((int) Math.ceil(percentile * latencies.size()) - 1) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d messages/s, p50 %.1f ms, p99 %.1f ms", getThroughput(), getLatency(0.5),
+                getLatency(0.99));
+    }
+}
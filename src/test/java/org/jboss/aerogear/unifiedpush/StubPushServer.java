@@ -0,0 +1,390 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+
+/**
+ * In-process fake of the UnifiedPush Server, implementing {@code rest/sender/} and {@code rest/sender/batch/}, to
+ * test and load test the sender offline.
+ * <p>
+ * Requests authenticated with the expected credentials are accepted with a 202, unless the server is told to answer
+ * slowly, with errors or with redirects. The behavior can be changed while requests are in flight.
+ */
+public class StubPushServer implements Closeable {
+
+    public static final String PUSH_APPLICATION_ID = "c7fc6525-5506-4ca9-9cf1-55cc261ddb9c";
+    public static final String MASTER_SECRET = "8b2f43a9-23c8-44fe-bee9-d6b0af9e316b";
+
+    private static final String CONTEXT_PATH = "/ag-push";
+    private static final String SENDER_PATH = CONTEXT_PATH + "/rest/sender/";
+    // self-signed, valid until 2126, created with: keytool -genkeypair -alias stub -keyalg RSA -keysize 2048
+    // -validity 36500 -dname CN=localhost -ext SAN=ip:127.0.0.1,dns:localhost -storetype jks -storepass aerogear
+    private static final String KEY_STORE = "stub-push-server.jks";
+    private static final String STORE_PASSWORD = "aerogear";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String authorization;
+    private final File trustStore;
+
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile int errorStatusCode;
+    private volatile double errorRate;
+    private volatile long retryAfter = -1;
+    private volatile String redirectTarget;
+    private volatile int redirectStatusCode;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger acceptedMessages = new AtomicInteger();
+    private final AtomicInteger acceptedBatches = new AtomicInteger();
+    private final AtomicInteger compressedRequests = new AtomicInteger();
+    private final AtomicInteger upgradeRequests = new AtomicInteger();
+    private final AtomicInteger chunkedRequests = new AtomicInteger();
+    private volatile String lastPayload;
+    private volatile String lastProtocol;
+
+    private StubPushServer(boolean secure) throws Exception {
+        authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((PUSH_APPLICATION_ID + ':' + MASTER_SECRET).getBytes(StandardCharsets.UTF_8));
+        final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+        if (secure) {
+            final KeyStore keyStore = loadKeyStore();
+            trustStore = writeTrustStore(keyStore);
+            final HttpsServer httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext(keyStore)));
+            server = httpsServer;
+        } else {
+            trustStore = null;
+            server = HttpServer.create(address, 0);
+        }
+        server.createContext(SENDER_PATH, this::handle);
+        // unbounded, so that the injected latency doesn't turn into queueing
+        executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "stub-push-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return a started server speaking plain HTTP
+     * @throws Exception when the server could not be started.
+     */
+    public static StubPushServer start() throws Exception {
+        return new StubPushServer(false);
+    }
+
+    /**
+     * Starts a server speaking HTTPS with the self-signed certificate of {@code stub-push-server.jks}, valid for
+     * {@code localhost} and {@code 127.0.0.1}, which is trusted by {@link #getTrustStore()}.
+     *
+     * @return a started server speaking HTTPS
+     * @throws Exception when the server could not be started.
+     */
+    public static StubPushServer startSecure() throws Exception {
+        return new StubPushServer(true);
+    }
+
+    /**
+     * @return the root URL of the server, to build the sender with
+     */
+    public String getRootServerURL() {
+        return (trustStore != null ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort() + CONTEXT_PATH;
+    }
+
+    /**
+     * @return the trustStore trusting the certificate of a secure server, {@code null} for a plain HTTP server
+     */
+    public TrustStoreConfig getTrustStore() {
+        return trustStore != null ? new TrustStoreConfig(trustStore.getPath(), "jks", STORE_PASSWORD) : null;
+    }
+
+    /**
+     * Delays every response by a random time between the given bounds.
+     *
+     * @param minLatency Minimum latency in ms.
+     * @param maxLatency Maximum latency in ms.
+     */
+    public void setLatency(long minLatency, long maxLatency) {
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("invalid latency bounds");
+        }
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Answers the given share of the requests with the given error.
+     *
+     * @param statusCode The status code of the injected errors, e.g. 429 or 503.
+     * @param errorRate The share of requests failing, between 0 and 1.
+     */
+    public void injectErrors(int statusCode, double errorRate) {
+        this.errorStatusCode = statusCode;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Answers the next requests with the given error.
+     *
+     * @param statusCode The status code of the injected errors, e.g. 401 or 500.
+     * @param count The number of requests failing.
+     */
+    public void failNext(int statusCode, int count) {
+        this.errorStatusCode = statusCode;
+        failures.set(count);
+    }
+
+    /**
+     * @param retryAfter Seconds sent in the {@code Retry-After} header of injected 429 and 503 responses,
+     *                   negative to omit the header.
+     */
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Redirects every request to the same path on the given server.
+     *
+     * @param rootServerURL The root URL of the target, e.g. the one of another {@link StubPushServer}, or
+     *                      {@code null} to stop redirecting.
+     * @param statusCode The status code of the redirects, e.g. 301, 307 or 308.
+     */
+    public void redirectTo(String rootServerURL, int statusCode) {
+        this.redirectTarget = rootServerURL;
+        this.redirectStatusCode = statusCode;
+    }
+
+    /**
+     * Restores the default behavior of accepting every request right away, and resets the counters.
+     */
+    public void reset() {
+        minLatency = 0;
+        maxLatency = 0;
+        errorRate = 0;
+        failures.set(0);
+        retryAfter = -1;
+        redirectTarget = null;
+        requests.set(0);
+        acceptedMessages.set(0);
+        acceptedBatches.set(0);
+        compressedRequests.set(0);
+        upgradeRequests.set(0);
+        chunkedRequests.set(0);
+        lastPayload = null;
+        lastProtocol = null;
+    }
+
+    /**
+     * @return the number of requests received, including rejected ones
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of single messages accepted on {@code rest/sender/}
+     */
+    public int getAcceptedMessages() {
+        return acceptedMessages.get();
+    }
+
+    /**
+     * @return the number of batches accepted on {@code rest/sender/batch/}
+     */
+    public int getAcceptedBatches() {
+        return acceptedBatches.get();
+    }
+
+    /**
+     * @return the number of requests received with a gzip compressed body
+     */
+    public int getCompressedRequests() {
+        return compressedRequests.get();
+    }
+
+    /**
+     * @return the number of requests received with a chunked body
+     */
+    public int getChunkedRequests() {
+        return chunkedRequests.get();
+    }
+
+    /**
+     * @return the number of requests asking to upgrade the connection, e.g. to HTTP/2, which the server ignores
+     */
+    public int getUpgradeRequests() {
+        return upgradeRequests.get();
+    }
+
+    /**
+     * @return the protocol of the last request, e.g. {@code HTTP/1.1}
+     */
+    public String getLastProtocol() {
+        return lastProtocol;
+    }
+
+    /**
+     * @return the decompressed body of the last accepted request
+     */
+    public String getLastPayload() {
+        return lastPayload;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        if (trustStore != null) {
+            trustStore.delete();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            lastProtocol = exchange.getProtocol();
+            if (exchange.getRequestHeaders().containsKey("Upgrade")) {
+                upgradeRequests.incrementAndGet();
+            }
+            if ("chunked".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Transfer-Encoding"))) {
+                chunkedRequests.incrementAndGet();
+            }
+            final String payload = readBody(exchange);
+            delay();
+
+            final String path = exchange.getRequestURI().getPath();
+            final boolean batch = path.equals(SENDER_PATH + "batch/");
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405);
+            } else if (!batch && !path.equals(SENDER_PATH)) {
+                respond(exchange, 404);
+            } else if (!authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401);
+            } else if (redirectTarget != null) {
+                exchange.getResponseHeaders().add("Location", redirectTarget + path.substring(CONTEXT_PATH.length()));
+                respond(exchange, redirectStatusCode);
+            } else if (isFailing()) {
+                if (retryAfter >= 0 && (errorStatusCode == 429 || errorStatusCode == 503)) {
+                    exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfter));
+                }
+                respond(exchange, errorStatusCode);
+            } else {
+                (batch ? acceptedBatches : acceptedMessages).incrementAndGet();
+                lastPayload = payload;
+                // without a body, the response is written at once instead of being delayed by Nagle's algorithm
+                respond(exchange, 202);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            compressedRequests.incrementAndGet();
+            in = new GZIPInputStream(in);
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void delay() throws InterruptedException {
+        final long min = minLatency;
+        final long max = maxLatency;
+        if (max > 0) {
+            TimeUnit.MILLISECONDS.sleep(min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1));
+        }
+    }
+
+    private boolean isFailing() {
+        if (failures.get() > 0 && failures.getAndDecrement() > 0) {
+            return true;
+        }
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode) throws IOException {
+        exchange.sendResponseHeaders(statusCode, -1);
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("jks");
+        try (InputStream in = StubPushServer.class.getResourceAsStream(KEY_STORE)) {
+            if (in == null) {
+                throw new IllegalStateException(KEY_STORE + " not found");
+            }
+            keyStore.load(in, STORE_PASSWORD.toCharArray());
+        }
+        return keyStore;
+    }
+
+    private static File writeTrustStore(KeyStore keyStore) throws Exception {
+        final KeyStore trustStore = KeyStore.getInstance("jks");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("stub", keyStore.getCertificate("stub"));
+        final File trustStoreFile = File.createTempFile("stub-push-server", ".truststore");
+        try (OutputStream out = new FileOutputStream(trustStoreFile)) {
+            trustStore.store(out, STORE_PASSWORD.toCharArray());
+        }
+        return trustStoreFile;
+    }
+
+    private static SSLContext sslContext(KeyStore keyStore) throws Exception {
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, STORE_PASSWORD.toCharArray());
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.ca;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrustStoreManagerServiceTest {
+
+    private static final String TRUSTSTORE_PASSWORD = "aerogear";
+
+    private File trustStoreFile;
+    private TrustStoreConfig trustStoreConfig;
+
+    @Before
+    public void setup() throws Exception {
+        trustStoreFile = File.createTempFile("aerogear", ".truststore");
+        writeTrustStore();
+        trustStoreConfig = new TrustStoreConfig(trustStoreFile.getPath(), "jks", TRUSTSTORE_PASSWORD);
+    }
+
+    @After
+    public void tearDown() {
+        TrustStoreManagerService.getInstance().clearSSLSocketFactories();
+        trustStoreFile.delete();
+    }
+
+    @Test
+    public void sharesSSLSocketFactory() throws Exception {
+        final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+
+        assertSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(
+                new TrustStoreConfig(trustStoreFile.getPath(), "jks", TRUSTSTORE_PASSWORD)));
+    }
+
+    @Test
+    public void loadsTrustStoreOnlyOnce() throws Exception {
+        final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+
+        // served from the cache, the file is not read again
+        trustStoreFile.delete();
+
+        assertSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig));
+    }
+
+    @Test
+    public void separatesTrustStores() throws Exception {
+        final File otherTrustStoreFile = File.createTempFile("aerogear", ".truststore");
+        try {
+            writeTrustStore(otherTrustStoreFile);
+            final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+
+            assertNotSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(
+                    new TrustStoreConfig(otherTrustStoreFile.getPath(), "jks", TRUSTSTORE_PASSWORD)));
+        } finally {
+            otherTrustStoreFile.delete();
+        }
+    }
+
+    @Test
+    public void rebuildsClearedSSLSocketFactory() throws Exception {
+        final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+
+        TrustStoreManagerService.getInstance().clearSSLSocketFactories();
+
+        assertNotSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig));
+    }
+
+    @Test
+    public void keepsSSLSocketFactoryOfUnmodifiedTrustStore() throws Exception {
+        final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+
+        TrustStoreManagerService.getInstance().reloadModifiedTrustStores();
+
+        assertSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig));
+    }
+
+    @Test
+    public void reloadsModifiedTrustStore() throws Exception {
+        final SSLSocketFactory sslSocketFactory = TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+        final SSLContext sslContext = TrustStoreManagerService.getInstance().getSSLContext(trustStoreConfig);
+
+        writeTrustStore();
+        trustStoreFile.setLastModified(trustStoreFile.lastModified() + 5000);
+        TrustStoreManagerService.getInstance().reloadModifiedTrustStores();
+
+        assertNotSame(sslSocketFactory, TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig));
+        // the context is replaced along with the factory
+        assertNotSame(sslContext, TrustStoreManagerService.getInstance().getSSLContext(trustStoreConfig));
+    }
+
+    @Test
+    public void stopsReloadWhenCleared() throws Exception {
+        TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+        assertTrue(TrustStoreManagerService.getInstance().isReloadScheduled());
+
+        TrustStoreManagerService.getInstance().clearSSLSocketFactories();
+
+        assertFalse(TrustStoreManagerService.getInstance().isReloadScheduled());
+    }
+
+    @Test
+    public void stopsReloadThreadOnShutdown() throws Exception {
+        TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+        assertTrue(isReloadThreadAlive());
+
+        TrustStoreManagerService.getInstance().shutdown();
+
+        assertFalse(TrustStoreManagerService.getInstance().isReloadScheduled());
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (isReloadThreadAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(isReloadThreadAlive());
+
+        // usable again afterwards
+        TrustStoreManagerService.getInstance().getSSLSocketFactory(trustStoreConfig);
+        assertTrue(TrustStoreManagerService.getInstance().isReloadScheduled());
+    }
+
+    private static boolean isReloadThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("aerogear-truststore-reload".equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeTrustStore() throws Exception {
+        writeTrustStore(trustStoreFile);
+    }
+
+    private static void writeTrustStore(File file) throws Exception {
+        final KeyStore trustStore = KeyStore.getInstance("jks");
+        trustStore.load(null, null);
+        try (OutputStream out = new FileOutputStream(file)) {
+            trustStore.store(out, TRUSTSTORE_PASSWORD.toCharArray());
+        }
+    }
+}
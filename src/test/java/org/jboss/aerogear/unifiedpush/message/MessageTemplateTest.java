@@ -0,0 +1,112 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Test;
+
+public class MessageTemplateTest {
+
+    private final MessageTemplate template = MessageTemplate.of(UnifiedMessage.withMessage()
+            .alert("Hello ${name}, your ${item} has shipped")
+            .userData("order", "${order}")
+            .userData("static", "${not a placeholder}")
+            .apns()
+                .title("${item}")
+                .build()
+            .criteria()
+                .aliases("${alias}")
+                .variants("${variant}")
+            .build());
+
+    @Test
+    public void collectsPlaceholders() {
+        assertEquals(new HashSet<String>(Arrays.asList("name", "item", "order", "alias")), template.getPlaceholders());
+    }
+
+    @Test
+    public void rendersLikeSerializedMessage() {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("name", "Mike \"The Bike\"");
+        values.put("item", "caf\u00e9 \u2615 \ud83d\udce6");
+        values.put("order", "line\nbreak\\ \u0001");
+        values.put("alias", "mike@example.com");
+
+        final UnifiedMessage expected = UnifiedMessage.withMessage()
+                .alert("Hello Mike \"The Bike\", your caf\u00e9 \u2615 \ud83d\udce6 has shipped")
+                .userData("order", "line\nbreak\\ \u0001")
+                .userData("static", "${not a placeholder}")
+                .apns()
+                    .title("caf\u00e9 \u2615 \ud83d\udce6")
+                    .build()
+                .criteria()
+                    .aliases("mike@example.com")
+                    .variants("${variant}")
+                .build();
+
+        assertEquals(expected.freeze(), template.render(values));
+    }
+
+    @Test
+    public void escapesControlCharactersLikeSerializedMessage() {
+        final StringBuilder value = new StringBuilder("\"\\/");
+        for (char c = 0; c < 0x20; c++) {
+            value.append(c);
+        }
+        value.append('\u007f');
+
+        final MessageTemplate alert = MessageTemplate.of(UnifiedMessage.withMessage().alert("${value}").build());
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("value", value.toString());
+
+        final UnifiedMessage expected = UnifiedMessage.withMessage().alert(value.toString()).build();
+
+        assertEquals(expected.getObject().toJsonString(), new String(alert.render(values).getPayload(), UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMarkerInUnmarkedField() {
+        MessageTemplate.of(UnifiedMessage.withMessage()
+                .alert("Hello ${name}")
+                .sound("\ue0000\ue000")
+                .build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMarkerInNestedUserData() {
+        final Map<String, Object> userData = new HashMap<String, Object>();
+        userData.put("nested", Collections.singletonMap("key", "\ue000"));
+        MessageTemplate.of(UnifiedMessage.withMessage()
+                .alert("Hello ${name}")
+                .userData(userData)
+                .build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnMissingValue() {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("name", "Mike");
+        template.render(values);
+    }
+}
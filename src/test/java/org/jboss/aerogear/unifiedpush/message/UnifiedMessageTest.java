@@ -19,9 +19,12 @@ package org.jboss.aerogear.unifiedpush.message;
 import static org.jboss.aerogear.unifiedpush.message.Priority.HIGH;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -158,5 +161,136 @@ public class UnifiedMessageTest {
         assertEquals("bar-value", ((Map) unifiedMessage.getMessage().getObject().getUserData()).get("bar-key"));
     }
 
+    @Test
+    public void buildTakesSnapshot() {
+        UnifiedMessage.MessageBuilder builder = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .userData("foo-key", "foo-value")
+                .criteria()
+                    .aliases("mike")
+                .message();
+        UnifiedMessage unifiedMessage = builder.build();
+
+        builder.alert("Bye").userData("bar-key", "bar-value");
+        builder.criteria().aliases("john");
+
+        assertEquals("Hello", unifiedMessage.getObject().getMessage().getAlert());
+        assertEquals(1, unifiedMessage.getObject().getMessage().getUserData().size());
+        assertEquals("mike", unifiedMessage.getObject().getCriteria().getAliases().get(0));
+        assertEquals("Bye", builder.build().getObject().getMessage().getAlert());
+        assertSame(unifiedMessage.getObject(), unifiedMessage.getObject());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsUnmodifiable() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withCriteria()
+                .aliases("mike")
+                .build();
+        unifiedMessage.getObject().getCriteria().getAliases().add("john");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshotCopiesNestedUserData() {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("items", new ArrayList<String>(Arrays.asList("book")));
+        Map<String, Object> userData = new HashMap<String, Object>();
+        userData.put("order", nested);
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .userData(userData)
+                .build();
+        String json = unifiedMessage.getObject().toJsonString();
+
+        ((List<String>) nested.get("items")).add("pen");
+
+        assertEquals(json, unifiedMessage.getObject().toJsonString());
+        Map<?, ?> order = (Map<?, ?>) unifiedMessage.getObject().getMessage().getUserData().get("order");
+        try {
+            ((List<String>) order.get("items")).add("pen");
+            fail("nested collections of the snapshot should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotRejectsSetters() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .build();
+        unifiedMessage.getObject().getMessage().setAlert("Bye");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotRejectsSettersOfDefaults() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .build();
+        unifiedMessage.getObject().getConfig().setTimeToLive(60);
+    }
+
+    @Test
+    public void shardsLargeCriteria() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .criteria()
+                    .aliases("mike", "john", "maria", "lisa", "paul")
+                    .variants("ios", "android", "web")
+                    .categories("sport")
+                .build();
+
+        List<FrozenMessage> shards = unifiedMessage.shard(2);
+        assertEquals(6, shards.size());
+        assertEquals("{\"alias\":[\"mike\",\"john\"],\"variants\":[\"ios\",\"android\"]}", criteriaOf(shards.get(0)));
+        assertEquals("{\"alias\":[\"paul\"],\"variants\":[\"web\"]}", criteriaOf(shards.get(5)));
+        assertTrue(shards.get(5).toJsonString().contains("\"categories\":[\"sport\"]"));
+
+        assertEquals(1, unifiedMessage.shard(5).size());
+        assertSame(unifiedMessage.freeze(), unifiedMessage.shard(5).get(0));
+    }
+
+    @Test
+    public void shardsFrozenMessage() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .criteria()
+                    .aliases("mike", "john", "maria")
+                .build();
+        FrozenMessage frozenMessage = unifiedMessage.freeze();
+
+        assertEquals(unifiedMessage.shard(2), frozenMessage.shard(2));
+        assertSame(frozenMessage, frozenMessage.shard(3).get(0));
+    }
+
+    private static String criteriaOf(FrozenMessage shard) {
+        String json = shard.toJsonString();
+        String aliases = json.substring(json.indexOf("\"alias\""), json.indexOf(']', json.indexOf("\"alias\"")) + 1);
+        String variants = json.substring(json.indexOf("\"variants\""), json.indexOf(']', json.indexOf("\"variants\"")) + 1);
+        return "{" + aliases + "," + variants + "}";
+    }
+
+    @Test
+    public void freeze() {
+        UnifiedMessage unifiedMessage = UnifiedMessage.withMessage()
+                .alert("Hello")
+                .criteria()
+                    .aliases("mike")
+                .build();
+        FrozenMessage frozenMessage = unifiedMessage.freeze();
+        assertEquals(unifiedMessage.getObject().toJsonString(), frozenMessage.toJsonString());
+        assertEquals(frozenMessage.toByteArray().length, frozenMessage.size());
+
+        // later changes are not reflected
+        unifiedMessage.getMessage().alert("Bye");
+        assertTrue(frozenMessage.toJsonString().contains("Hello"));
+        assertFalse(frozenMessage.toJsonString().contains("Bye"));
+
+        frozenMessage.toByteArray()[0] = ' ';
+        assertEquals('{', frozenMessage.toByteArray()[0]);
+        // the payload itself is handed out without being copied
+        assertSame(frozenMessage.getPayload(), frozenMessage.getPayload());
+    }
+
 
 }
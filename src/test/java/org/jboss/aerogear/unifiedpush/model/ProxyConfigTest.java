@@ -0,0 +1,53 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProxyConfigTest {
+
+    private ProxyConfig proxyConfig;
+
+    @Before
+    public void setup() {
+        proxyConfig = new ProxyConfig(Proxy.Type.HTTP);
+        proxyConfig.setProxyHost("localhost");
+        proxyConfig.setProxyPort(8080);
+    }
+
+    @Test
+    public void createsProxy() {
+        final Proxy proxy = proxyConfig.toProxy();
+        assertEquals(Proxy.Type.HTTP, proxy.type());
+        assertEquals(8080, ((InetSocketAddress) proxy.address()).getPort());
+    }
+
+    @Test
+    public void proxyAuthorization() {
+        assertNull(proxyConfig.getProxyAuthorization());
+        proxyConfig.setProxyUser("proxy-user");
+        proxyConfig.setProxyPassword("proxy-secret");
+        // Base64 of "proxy-user:proxy-secret"
+        assertEquals("Basic cHJveHktdXNlcjpwcm94eS1zZWNyZXQ=", proxyConfig.getProxyAuthorization());
+    }
+}
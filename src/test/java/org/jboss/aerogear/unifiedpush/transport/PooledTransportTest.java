@@ -0,0 +1,385 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.jboss.aerogear.unifiedpush.utils.HttpRequestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledTransportTest {
+
+    private static final String ENCODED_CREDENTIALS = "YzdmYzY1MjU6OGIyZjQzYTk=";
+    private static final byte[] PAYLOAD = "{\"message\":{\"alert\":\"Hello\"}}".getBytes();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Set<InetSocketAddress> clientConnections = ConcurrentHashMap.newKeySet();
+    private final List<String> requestBodies = new CopyOnWriteArrayList<>();
+    private final List<String> transferEncodings = new CopyOnWriteArrayList<>();
+    private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+    private String url;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ag-push/rest/sender/", exchange -> {
+            clientConnections.add(exchange.getRemoteAddress());
+            final String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            contentEncodings.add(String.valueOf(contentEncoding));
+            final InputStream in = "gzip".equals(contentEncoding)
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read()) != -1) {
+                requestBody.write(read);
+            }
+            requestBodies.add(requestBody.toString("UTF-8"));
+            transferEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Transfer-Encoding")));
+            if (exchange.getRequestURI().getPath().endsWith("/moved/")) {
+                exchange.getResponseHeaders().add("Location", url);
+                exchange.sendResponseHeaders(301, -1);
+            } else {
+                final byte[] body = "{}".getBytes();
+                exchange.sendResponseHeaders(202, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ag-push/rest/sender/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        try (PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(202, transport.post(url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            }
+        }
+        assertEquals(1, clientConnections.size());
+    }
+
+    @Test
+    public void exposesResponseHeaders() throws Exception {
+        try (PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            final TransportResponse response = transport.post(url + "moved/", ENCODED_CREDENTIALS, PAYLOAD);
+            assertEquals(301, response.getStatusCode());
+            assertEquals(url, response.getHeader("Location"));
+        }
+    }
+
+    @Test
+    public void limitsConnectionsPerRoute() throws Exception {
+        final HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setMaxConnectionsPerRoute(2);
+
+        final ExecutorService senders = Executors.newFixedThreadPool(8);
+        try (PooledTransport transport = new PooledTransport(null, null, connectionSettings)) {
+            final List<Future<TransportResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                responses.add(senders.submit(new Callable<TransportResponse>() {
+                    @Override
+                    public TransportResponse call() throws Exception {
+                        return transport.post(url, ENCODED_CREDENTIALS, PAYLOAD);
+                    }
+                }));
+            }
+            for (Future<TransportResponse> response : responses) {
+                assertEquals(202, response.get().getStatusCode());
+            }
+        } finally {
+            senders.shutdownNow();
+        }
+        assertEquals(2, clientConnections.size());
+    }
+
+    @Test
+    public void compressesLargePayload() throws Exception {
+        final StringBuilder expected = new StringBuilder("{\"alias\":[");
+        for (int i = 0; i < 1000; i++) {
+            expected.append(i == 0 ? "" : ",").append("\"user-").append(i).append("@example.com\"");
+        }
+        expected.append("]}");
+
+        final HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setCompressionThreshold(1024);
+        try (PooledTransport transport = new PooledTransport(null, null, connectionSettings)) {
+            assertEquals(202, transport.post(url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            assertEquals(202, transport.post(url, ENCODED_CREDENTIALS, expected.toString().getBytes("UTF-8")).getStatusCode());
+            assertEquals(202, transport.post(url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+        }
+        assertEquals(Arrays.asList("null", "gzip", "null"), contentEncodings);
+        assertEquals(expected.toString(), requestBodies.get(1));
+        // the compressed body is framed correctly, so the connection is reused
+        assertEquals(1, clientConnections.size());
+    }
+
+    @Test
+    public void streamsChunkedPayload() throws Exception {
+        final StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            expected.append(i == 0 ? "" : ",").append("{\"message\":{\"alert\":\"Hello ").append(i).append("\"}}");
+        }
+        expected.append(']');
+        final byte[] payload = expected.toString().getBytes("UTF-8");
+
+        try (PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            // byte by byte and in slices, to cross the chunk boundaries both ways
+            assertEquals(202, transport.postStreaming(url, ENCODED_CREDENTIALS, out -> {
+                out.write(payload, 0, 10);
+                for (int i = 10; i < 20000; i++) {
+                    out.write(payload[i]);
+                }
+                out.write(payload, 20000, payload.length - 20000);
+            }).getStatusCode());
+            assertEquals(202, transport.post(url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+        }
+        assertEquals(Arrays.asList(expected.toString(), new String(PAYLOAD, "UTF-8")), requestBodies);
+        assertEquals("chunked", transferEncodings.get(0));
+        assertEquals(1, clientConnections.size());
+    }
+
+    @Test
+    public void evictsExpiredConnections() throws Exception {
+        final HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setConnectionTimeToLive(1);
+
+        try (PooledTransport transport = new PooledTransport(null, null, connectionSettings)) {
+            transport.post(url, ENCODED_CREDENTIALS, PAYLOAD);
+            Thread.sleep(10);
+            transport.post(url, ENCODED_CREDENTIALS, PAYLOAD);
+        }
+        assertEquals(2, clientConnections.size());
+    }
+
+    @Test
+    public void readsChunkedResponse() throws Exception {
+        try (ScriptedServer scripted = new ScriptedServer((request, socket) -> {
+            respond(socket, "HTTP/1.1 202 Accepted\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "2;ext=1\r\n{}\r\n1\r\n \r\n0\r\nX-Trailer: done\r\n\r\n");
+            return true;
+        }); PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            }
+            assertEquals(3, scripted.requests.get());
+            assertEquals(1, scripted.connections.get());
+        }
+    }
+
+    @Test
+    public void doesNotReuseClosedConnection() throws Exception {
+        try (ScriptedServer scripted = new ScriptedServer((request, socket) -> {
+            respond(socket, "HTTP/1.1 202 Accepted\r\nConnection: close\r\nContent-Length: 2\r\n\r\n{}");
+            return false;
+        }); PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            }
+            assertEquals(3, scripted.requests.get());
+            assertEquals(3, scripted.connections.get());
+        }
+    }
+
+    @Test
+    public void retriesWhenServerHalfClosedIdleConnection() throws Exception {
+        try (ScriptedServer scripted = new ScriptedServer((request, socket) -> {
+            if (request == 2) {
+                // closes the kept alive connection without answering, as servers do when it has been idle too long
+                socket.shutdownOutput();
+                return false;
+            }
+            respond(socket, "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n");
+            return true;
+        }); PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            assertEquals(3, scripted.requests.get());
+            assertEquals(2, scripted.connections.get());
+        }
+    }
+
+    @Test
+    public void doesNotRetryPartialResponse() throws Exception {
+        try (ScriptedServer scripted = new ScriptedServer((request, socket) -> {
+            if (request > 1) {
+                respond(socket, "HTTP/1.1 20");
+                socket.shutdownOutput();
+                return false;
+            }
+            respond(socket, "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n");
+            return true;
+        }); PooledTransport transport = new PooledTransport(null, null, new HttpRequestUtil.ConnectionSettings())) {
+            assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            try {
+                transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD);
+                fail("IOException expected");
+            } catch (IOException e) {
+                // the server has seen the request, it must not be sent again
+            }
+            assertEquals(2, scripted.requests.get());
+            assertEquals(1, scripted.connections.get());
+        }
+    }
+
+    @Test
+    public void doesNotRetryReadTimeout() throws Exception {
+        final HttpRequestUtil.ConnectionSettings connectionSettings = new HttpRequestUtil.ConnectionSettings();
+        connectionSettings.setReadTimeout(200);
+
+        try (ScriptedServer scripted = new ScriptedServer((request, socket) -> {
+            if (request == 1) {
+                respond(socket, "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n");
+            }
+            // the second request is swallowed
+            return true;
+        }); PooledTransport transport = new PooledTransport(null, null, connectionSettings)) {
+            assertEquals(202, transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD).getStatusCode());
+            try {
+                transport.post(scripted.url, ENCODED_CREDENTIALS, PAYLOAD);
+                fail("SocketTimeoutException expected");
+            } catch (SocketTimeoutException e) {
+                // the request may have been delivered, it must not be sent again
+            }
+            assertEquals(2, scripted.requests.get());
+            assertEquals(1, scripted.connections.get());
+        }
+    }
+
+    private static void respond(Socket socket, String response) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(response.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    /**
+     * Answers each request as scripted, giving full control over the connection.
+     */
+    private interface Script {
+
+        /**
+         * @param request the number of the request on the server, starting at one
+         * @return true to keep the connection open for the next request
+         */
+        boolean answer(int request, Socket socket) throws IOException;
+    }
+
+    /**
+     * Bare HTTP/1.1 server reading requests with a content length and answering them as scripted.
+     */
+    private static final class ScriptedServer implements AutoCloseable {
+
+        private final ServerSocket serverSocket;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final String url;
+
+        private ScriptedServer(Script script) throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/ag-push/rest/sender/";
+            executor.execute(() -> {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        sockets.add(socket);
+                        connections.incrementAndGet();
+                        executor.execute(() -> serve(socket, script));
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+        }
+
+        private void serve(Socket socket, Script script) {
+            try {
+                final InputStream in = socket.getInputStream();
+                boolean keepAlive = true;
+                while (keepAlive && readRequest(in)) {
+                    keepAlive = script.answer(requests.incrementAndGet(), socket);
+                }
+            } catch (IOException e) {
+                // connection closed by the client
+            }
+        }
+
+        private static boolean readRequest(InputStream in) throws IOException {
+            final StringBuilder head = new StringBuilder();
+            int b;
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                if ((b = in.read()) == -1) {
+                    return false;
+                }
+                head.append((char) b);
+            }
+            final String lowerCaseHead = head.toString().toLowerCase();
+            final int start = lowerCaseHead.indexOf("content-length:") + "content-length:".length();
+            final int contentLength = Integer.parseInt(lowerCaseHead.substring(start, lowerCaseHead.indexOf('\r', start)).trim());
+            for (int i = 0; i < contentLength; i++) {
+                if (in.read() == -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            executor.shutdownNow();
+        }
+    }
+}
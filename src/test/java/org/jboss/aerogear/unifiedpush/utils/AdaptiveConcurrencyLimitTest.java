@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    @Test
+    public void cutsLimitOnOverload() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 16);
+        assertEquals(16, limit.getLimit());
+        assertEquals(8, limit.onOverload(System.nanoTime()));
+        assertEquals(4, limit.onOverload(System.nanoTime()));
+    }
+
+    @Test
+    public void ignoresOverloadOfRequestsStartedBeforeLastCut() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 16);
+        final long startTime = System.nanoTime();
+        assertEquals(8, limit.onOverload(startTime));
+        assertEquals(8, limit.onOverload(startTime));
+    }
+
+    @Test
+    public void neverDropsBelowMinimum() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 4);
+        for (int i = 0; i < 10; i++) {
+            limit.onOverload(System.nanoTime());
+        }
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void growsBackWhileLatencyStaysLow() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 16);
+        limit.onOverload(System.nanoTime());
+        limit.onOverload(System.nanoTime());
+        // about one more request in flight per window of successes
+        for (int i = 0; i < 5; i++) {
+            limit.onSuccess(1000000);
+        }
+        assertEquals(5, limit.getLimit());
+        // slow responses don't grow the limit
+        for (int i = 0; i < 10; i++) {
+            limit.onSuccess(10000000);
+        }
+        assertEquals(5, limit.getLimit());
+        for (int i = 0; i < 1000; i++) {
+            limit.onSuccess(1000000);
+        }
+        assertEquals(16, limit.getLimit());
+    }
+}
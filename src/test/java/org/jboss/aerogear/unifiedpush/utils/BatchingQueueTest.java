@@ -0,0 +1,127 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BatchingQueueTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void flushesFullBatch() throws Exception {
+        try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(3, 60000, this::record)) {
+            final CompletableFuture<Integer> first = queue.add("a");
+            queue.add("b");
+            assertFalse(first.isDone());
+
+            final CompletableFuture<Integer> third = queue.add("c");
+            assertEquals(Integer.valueOf(3), first.get(1, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(3), third.get(1, TimeUnit.SECONDS));
+            assertEquals(0, queue.getPending());
+        }
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), batches);
+    }
+
+    @Test
+    public void flushesAfterLingerTime() throws Exception {
+        try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(100, 10, this::record)) {
+            assertEquals(Integer.valueOf(2), queue.add("a").thenCombine(queue.add("b"), Math::max)
+                    .get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), batches);
+    }
+
+    @Test
+    public void lingerTaskLeavesNextBatchAlone() throws Exception {
+        try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(2, 100, this::record)) {
+            // holding the queue's lock lets the linger task of the first batch start and wait for it
+            synchronized (queue) {
+                queue.add("a");
+                Thread.sleep(150);
+                queue.add("b");
+                queue.add("c");
+            }
+            // the first linger task is done, the one of the second batch is still pending
+            Thread.sleep(20);
+            assertEquals(Arrays.asList(Arrays.asList("a", "b")), batches);
+            assertEquals(1, queue.getPending());
+        }
+    }
+
+    @Test
+    public void leavesGivenSchedulerRunning() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(100, 10, this::record, scheduler)) {
+                assertEquals(Integer.valueOf(1), queue.add("a").get(1, TimeUnit.SECONDS));
+            }
+            assertFalse(scheduler.isShutdown());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void flushesOnClose() throws Exception {
+        final CompletableFuture<Integer> result;
+        try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(100, 60000, this::record)) {
+            result = queue.add("a");
+        }
+        assertEquals(Integer.valueOf(1), result.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failsEveryElementOfFailedBatch() throws Exception {
+        final List<CompletableFuture<Integer>> results = new ArrayList<>();
+        try (BatchingQueue<String, Integer> queue = new BatchingQueue<>(2, 60000, batch -> {
+            final CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("rejected"));
+            return failed;
+        })) {
+            results.add(queue.add("a"));
+            results.add(queue.add("b"));
+        }
+        for (CompletableFuture<Integer> result : results) {
+            try {
+                result.get(1, TimeUnit.SECONDS);
+                fail("batch should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    private CompletableFuture<Integer> record(List<String> batch) {
+        batches.add(batch);
+        return CompletableFuture.completedFuture(batch.size());
+    }
+}
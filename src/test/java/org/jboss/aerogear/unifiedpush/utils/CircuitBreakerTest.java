@@ -0,0 +1,145 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jboss.aerogear.unifiedpush.utils.CircuitBreaker.Permission;
+import org.jboss.aerogear.unifiedpush.utils.CircuitBreaker.State;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private final List<State> transitions = new ArrayList<>();
+
+    @Test
+    public void opensOnceFailureRateReached() {
+        final CircuitBreaker breaker = CircuitBreaker.withFailureRateThreshold(0.5)
+                .slidingWindowSize(4)
+                .minimumCalls(4)
+                .build();
+        breaker.addListener((circuitBreaker, from, to) -> transitions.add(to));
+
+        record(breaker, false, true, true);
+        assertEquals(State.CLOSED, breaker.getState());
+        record(breaker, false);
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquirePermission());
+        assertEquals(1, breaker.getRejectedCalls());
+        assertEquals(Arrays.asList(State.OPEN), transitions);
+    }
+
+    @Test
+    public void slidingWindowForgetsOldFailures() {
+        final CircuitBreaker breaker = CircuitBreaker.withFailureRateThreshold(0.5)
+                .slidingWindowSize(4)
+                .minimumCalls(4)
+                .build();
+        record(breaker, true, false, false, false, false, false, true);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0.25, breaker.getFailureRate(), 0);
+    }
+
+    @Test
+    public void closesAfterSuccessfulTrials() throws Exception {
+        final CircuitBreaker breaker = openBreaker();
+        final Permission first = breaker.tryAcquirePermission();
+        final Permission second = breaker.tryAcquirePermission();
+        assertNotNull(first);
+        assertNotNull(second);
+        // only the trial requests are let through
+        assertNull(breaker.tryAcquirePermission());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        first.onSuccess();
+        second.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0);
+        assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+    }
+
+    @Test
+    public void reopensOnFailedTrial() throws Exception {
+        final CircuitBreaker breaker = openBreaker();
+        breaker.tryAcquirePermission().onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.OPEN), transitions);
+    }
+
+    @Test
+    public void ignoresOutcomesOfEarlierStates() throws Exception {
+        final CircuitBreaker breaker = CircuitBreaker.withFailureRateThreshold(1)
+                .slidingWindowSize(2)
+                .minimumCalls(2)
+                .openDuration(20)
+                .halfOpenCalls(1)
+                .build();
+        breaker.addListener((circuitBreaker, from, to) -> transitions.add(to));
+        final Permission slowSuccess = breaker.tryAcquirePermission();
+        final Permission slowFailure = breaker.tryAcquirePermission();
+        record(breaker, true, true);
+        assertNull(breaker.tryAcquirePermission());
+        Thread.sleep(50);
+
+        final Permission trial = breaker.tryAcquirePermission();
+        assertNotNull(trial);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // requests let through while closed neither close nor reopen the half open breaker
+        slowSuccess.onSuccess();
+        slowFailure.onFailure();
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        trial.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        // nor do they count in the window of the breaker closed again
+        slowFailure.onFailure();
+        trial.onFailure();
+        assertEquals(0, breaker.getFailureRate(), 0);
+        assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+    }
+
+    private CircuitBreaker openBreaker() throws InterruptedException {
+        final CircuitBreaker breaker = CircuitBreaker.withFailureRateThreshold(1)
+                .slidingWindowSize(2)
+                .minimumCalls(2)
+                .openDuration(20)
+                .halfOpenCalls(2)
+                .build();
+        breaker.addListener((circuitBreaker, from, to) -> transitions.add(to));
+        record(breaker, true, true);
+        assertNull(breaker.tryAcquirePermission());
+        Thread.sleep(50);
+        return breaker;
+    }
+
+    private static void record(CircuitBreaker breaker, boolean... failures) {
+        for (boolean failure : failures) {
+            final Permission permission = breaker.tryAcquirePermission();
+            assertNotNull(permission);
+            if (failure) {
+                permission.onFailure();
+            } else {
+                permission.onSuccess();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+public class GzipOutputStreamTest {
+
+    @Test
+    public void compressesInGzipFormat() throws Exception {
+        final byte[] data = jsonPayload();
+        final byte[] compressed = GzipOutputStream.compress(data);
+        assertTrue(compressed.length < data.length / 4);
+        assertArrayEquals(data, decompress(compressed));
+    }
+
+    @Test
+    public void reusesPooledDeflaters() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            // alternate compressible and incompressible data, so a badly reset deflater would corrupt the output
+            final byte[] data = new byte[random.nextInt(20000)];
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            }
+            assertArrayEquals(data, decompress(GzipOutputStream.compress(data)));
+        }
+    }
+
+    @Test
+    public void finishLeavesStreamOpen() throws Exception {
+        final byte[] data = jsonPayload();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GzipOutputStream gzip = new GzipOutputStream(out);
+        gzip.write(data);
+        gzip.finish();
+        gzip.finish();
+        try {
+            gzip.write(data);
+            fail("writing beyond the end of the stream should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(data, decompress(out.toByteArray()));
+    }
+
+    @Test
+    public void releasesDeflaterWhenHeaderFails() {
+        final int pooled = GzipOutputStream.pooledDeflaters();
+        try {
+            new GzipOutputStream(new FailingOutputStream(0));
+            fail("writing the header should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // the borrowed deflater, new or pooled, is back in the pool
+        assertEquals(Math.max(pooled, 1), GzipOutputStream.pooledDeflaters());
+    }
+
+    @Test
+    public void releasesDeflaterWhenWriteFails() throws Exception {
+        final byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        final GzipOutputStream gzip = new GzipOutputStream(new FailingOutputStream(1000));
+        final int pooled = GzipOutputStream.pooledDeflaters();
+        try {
+            gzip.write(data);
+            fail("writing the data should fail");
+        } catch (IOException e) {
+            gzip.discard();
+        }
+        assertEquals(pooled + 1, GzipOutputStream.pooledDeflaters());
+        // doesn't try to write the trailer
+        gzip.close();
+        assertEquals(pooled + 1, GzipOutputStream.pooledDeflaters());
+    }
+
+    private static byte[] jsonPayload() throws Exception {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"message\":{\"alert\":\"Hello ").append(i).append("\"}}");
+        }
+        return json.append(']').toString().getBytes("UTF-8");
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                data.write(buffer, 0, read);
+            }
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * Fails once more than the given number of bytes were written.
+     */
+    private static final class FailingOutputStream extends OutputStream {
+
+        private final int capacity;
+        private int written;
+
+        private FailingOutputStream(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (written + len > capacity) {
+                throw new IOException("Broken pipe");
+            }
+            written += len;
+        }
+    }
+}
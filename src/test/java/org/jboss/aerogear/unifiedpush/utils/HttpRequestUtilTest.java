@@ -0,0 +1,133 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import org.jboss.aerogear.unifiedpush.model.ProxyConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpRequestUtilTest {
+
+    private ProxyConfig proxyConfig;
+
+    @Before
+    public void setup() {
+        proxyConfig = new ProxyConfig(Proxy.Type.HTTP);
+        proxyConfig.setProxyHost("localhost");
+        proxyConfig.setProxyPort(8080);
+    }
+
+    @Test
+    public void reusesProxyWithinTtl() {
+        final HttpRequestUtil.ConnectionSettings settings = new HttpRequestUtil.ConnectionSettings();
+        settings.setDnsCacheTtl(60000);
+        final Proxy proxy = settings.getProxy(proxyConfig);
+        assertSame(proxy, settings.getProxy(proxyConfig));
+        assertEquals(8080, ((InetSocketAddress) proxy.address()).getPort());
+    }
+
+    @Test
+    public void resolvesProxyAgainOnceExpired() {
+        final HttpRequestUtil.ConnectionSettings settings = new HttpRequestUtil.ConnectionSettings();
+        settings.setDnsCacheTtl(0);
+        final Proxy proxy = settings.getProxy(proxyConfig);
+        assertNotSame(proxy, settings.getProxy(proxyConfig));
+    }
+
+    @Test
+    public void resolvesProxyAgainOnChange() {
+        final HttpRequestUtil.ConnectionSettings settings = new HttpRequestUtil.ConnectionSettings();
+        final Proxy proxy = settings.getProxy(proxyConfig);
+        proxyConfig.setProxyPort(3128);
+        assertNotSame(proxy, settings.getProxy(proxyConfig));
+        assertEquals(3128, ((InetSocketAddress) settings.getProxy(proxyConfig).address()).getPort());
+    }
+
+    @Test
+    public void copiesSettingsWithoutCachedProxy() {
+        final HttpRequestUtil.ConnectionSettings settings = new HttpRequestUtil.ConnectionSettings();
+        settings.setReadTimeout(1000);
+        settings.setDnsCacheTtl(60000);
+        settings.setCompressionThreshold(512);
+        final Proxy proxy = settings.getProxy(proxyConfig);
+
+        final HttpRequestUtil.ConnectionSettings copy = new HttpRequestUtil.ConnectionSettings(settings);
+        assertEquals(Integer.valueOf(1000), copy.getReadTimeout());
+        assertEquals(Integer.valueOf(60000), copy.getDnsCacheTtl());
+        assertEquals(Integer.valueOf(512), copy.getCompressionThreshold());
+        // every sender keeps its own proxy
+        assertNotSame(proxy, copy.getProxy(proxyConfig));
+    }
+
+    @Test
+    public void releasesDeflaterWhenStreamedPayloadFails() throws Exception {
+        final HttpRequestUtil.ConnectionSettings settings = new HttpRequestUtil.ConnectionSettings();
+        settings.setCompressionThreshold(1);
+        final int pooled = GzipOutputStream.pooledDeflaters();
+        // accepts the connection without ever answering
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            HttpRequestUtil.postStreaming("http://127.0.0.1:" + server.getLocalPort() + "/ag-push/rest/sender/",
+                    "credentials", out -> {
+                        out.write('[');
+                        throw new IOException("serialization failed");
+                    }, null, null, settings);
+            fail("writing the payload should fail");
+        } catch (IOException e) {
+            assertEquals("serialization failed", e.getMessage());
+        }
+        assertEquals(Math.max(pooled, 1), GzipOutputStream.pooledDeflaters());
+    }
+
+    @Test
+    public void defaultProxyAuthenticatorAnswersRegisteredProxiesOnly() {
+        final ProxyConfig proxy = new ProxyConfig(Proxy.Type.SOCKS);
+        proxy.setProxyHost("socks.example.com");
+        proxy.setProxyPort(1080);
+        proxy.setProxyUser("proxyuser");
+        proxy.setProxyPassword("password");
+        HttpRequestUtil.DefaultProxyAuthenticator.register(proxy);
+
+        final PasswordAuthentication authentication = requestProxyAuthentication("SOCKS.example.com", 1080,
+                Authenticator.RequestorType.PROXY);
+        assertEquals("proxyuser", authentication.getUserName());
+        assertArrayEquals("password".toCharArray(), authentication.getPassword());
+
+        assertNull(requestProxyAuthentication("socks.example.com", 1081, Authenticator.RequestorType.PROXY));
+        assertNull(requestProxyAuthentication("other.example.com", 1080, Authenticator.RequestorType.PROXY));
+        // the credentials of the Push Server are not the proxy's
+        assertNull(requestProxyAuthentication("socks.example.com", 1080, Authenticator.RequestorType.SERVER));
+    }
+
+    private static PasswordAuthentication requestProxyAuthentication(String host, int port, Authenticator.RequestorType type) {
+        return Authenticator.requestPasswordAuthentication(host, null, port, "SOCKS5", "SOCKS authentication", null,
+                null, type);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jboss.aerogear.unifiedpush.utils.LoadBalancer.Endpoint;
+import org.junit.Test;
+
+public class LoadBalancerTest {
+
+    private static final List<String> SERVER_URLS = Arrays.asList("http://node1/", "http://node2/", "http://node3/");
+
+    @Test
+    public void roundRobin() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS, LoadBalancer.Strategy.ROUND_ROBIN, 3, 30000);
+        final Set<String> selected = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+        }
+        assertEquals(new HashSet<>(SERVER_URLS), selected);
+    }
+
+    @Test
+    public void leastOutstandingRequests() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS, LoadBalancer.Strategy.LEAST_OUTSTANDING_REQUESTS, 3, 30000);
+        final List<Endpoint> endpoints = loadBalancer.getEndpoints();
+        endpoints.get(0).onStart();
+        endpoints.get(0).onStart();
+        endpoints.get(2).onStart();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("http://node2/", loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+        }
+    }
+
+    @Test
+    public void latencyAwareAvoidsSlowEndpoint() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS, LoadBalancer.Strategy.LATENCY_AWARE, 3, 30000);
+        final List<Endpoint> endpoints = loadBalancer.getEndpoints();
+        respond(endpoints.get(0), 10);
+        respond(endpoints.get(1), 20);
+        respond(endpoints.get(2), 200);
+        assertEquals(200, endpoints.get(2).getLatency(), 1);
+
+        final Map<String, Integer> selected = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            selected.merge(loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl(), 1, Integer::sum);
+        }
+        // the slowest node loses every comparison, the fastest wins all of its own
+        assertNull(selected.get("http://node3/"));
+        assertTrue(selected.get("http://node1/") > selected.get("http://node2/"));
+    }
+
+    @Test
+    public void latencyAwarePenalizesErrors() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS.subList(0, 2), LoadBalancer.Strategy.LATENCY_AWARE, 10, 30000);
+        final List<Endpoint> endpoints = loadBalancer.getEndpoints();
+        respond(endpoints.get(0), 10);
+        respond(endpoints.get(1), 20);
+        fail(endpoints.get(0));
+        fail(endpoints.get(0));
+        fail(endpoints.get(0));
+        assertTrue(endpoints.get(0).getErrorRate() > 0.4);
+        assertEquals("http://node2/", loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+    }
+
+    @Test
+    public void excludesTriedEndpoints() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS, LoadBalancer.Strategy.ROUND_ROBIN, 3, 30000);
+        final List<Endpoint> endpoints = loadBalancer.getEndpoints();
+        assertEquals(endpoints.get(1), loadBalancer.select(Arrays.asList(endpoints.get(0), endpoints.get(2))));
+        assertNull(loadBalancer.select(endpoints));
+    }
+
+    @Test
+    public void ejectsFailingEndpoint() throws Exception {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS.subList(0, 2), LoadBalancer.Strategy.ROUND_ROBIN, 2, 50);
+        final Endpoint failing = loadBalancer.getEndpoints().get(0);
+        fail(failing);
+        assertFalse(failing.isEjected());
+        fail(failing);
+        assertTrue(failing.isEjected());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("http://node2/", loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+        }
+
+        Thread.sleep(100);
+        assertFalse(failing.isEjected());
+        final Set<String> selected = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            selected.add(loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+        }
+        assertEquals(2, selected.size());
+    }
+
+    @Test
+    public void selectsEjectedEndpointWhenAllAre() {
+        final LoadBalancer loadBalancer = new LoadBalancer(SERVER_URLS.subList(0, 2), LoadBalancer.Strategy.ROUND_ROBIN, 1, 30000);
+        fail(loadBalancer.getEndpoints().get(1));
+        fail(loadBalancer.getEndpoints().get(0));
+        assertEquals("http://node2/", loadBalancer.select(Collections.<Endpoint>emptyList()).getUrl());
+    }
+
+    private static void respond(Endpoint endpoint, long latency) {
+        endpoint.onStart();
+        endpoint.onSuccess(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latency));
+    }
+
+    private static void fail(Endpoint endpoint) {
+        endpoint.onFailure(endpoint.onStart());
+    }
+}
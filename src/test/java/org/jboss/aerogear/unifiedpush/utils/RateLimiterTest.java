@@ -0,0 +1,88 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void allowsBurstUpToRate() {
+        final RateLimiter limiter = new RateLimiter(10, 0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(1, 1000));
+        }
+        assertFalse(limiter.tryAcquire(1, 1000));
+    }
+
+    @Test
+    public void limitsBytes() {
+        final RateLimiter limiter = new RateLimiter(0, 1000);
+        assertTrue(limiter.tryAcquire(1, 600));
+        assertFalse(limiter.tryAcquire(1, 600));
+        // the messages of a rejected acquisition are not taken
+        assertTrue(limiter.tryAcquire(1, 400));
+    }
+
+    @Test
+    public void refundsMessagesWhenBytesExceeded() {
+        final RateLimiter limiter = new RateLimiter(2, 100);
+        assertTrue(limiter.tryAcquire(1, 100));
+        assertFalse(limiter.tryAcquire(1, 100));
+        assertEquals(0, limiter.reserve(1, 0));
+    }
+
+    @Test
+    public void letsOversizedMessageThroughFullBucket() {
+        final RateLimiter limiter = new RateLimiter(0, 100);
+        assertTrue(limiter.tryAcquire(1, 1000));
+        assertFalse(limiter.tryAcquire(1, 1));
+    }
+
+    @Test
+    public void reservesInOrder() {
+        final RateLimiter limiter = new RateLimiter(10, 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.reserve(1, 0));
+        }
+        final long first = limiter.reserve(1, 0);
+        final long second = limiter.reserve(1, 0);
+        assertTrue(first > TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void sharesLimiterPerPushApplication() {
+        final RateLimiter limiter = RateLimiter.forPushApplication("rate-limited-app", 1, 0);
+        assertSame(limiter, RateLimiter.forPushApplication("rate-limited-app", 1, 0));
+        assertTrue(limiter.tryAcquire(1, 0));
+        assertFalse(RateLimiter.forPushApplication("rate-limited-app", 1, 0).tryAcquire(1, 0));
+        assertTrue(RateLimiter.forPushApplication("other-app", 1, 0).tryAcquire(1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsConflictingRatesOfPushApplication() {
+        RateLimiter.forPushApplication("conflicting-app", 10, 0);
+        RateLimiter.forPushApplication("conflicting-app", 20, 0);
+    }
+}
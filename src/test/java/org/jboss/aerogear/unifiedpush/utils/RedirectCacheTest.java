@@ -0,0 +1,71 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RedirectCacheTest {
+
+    private static final String OLD_URL = "http://old.example.com/ag-push/rest/sender/";
+    private static final String NEW_URL = "https://new.example.com/ag-push/rest/sender/";
+
+    @Test
+    public void resolvesRedirects() {
+        final RedirectCache cache = new RedirectCache(60000);
+        assertEquals(OLD_URL, cache.resolve(OLD_URL));
+        cache.put(OLD_URL, NEW_URL);
+        assertEquals(NEW_URL, cache.resolve(OLD_URL));
+        assertEquals(NEW_URL, cache.resolve(NEW_URL));
+    }
+
+    @Test
+    public void followsChainedRedirects() {
+        final RedirectCache cache = new RedirectCache(60000);
+        cache.put(OLD_URL, "http://intermediate.example.com/");
+        cache.put("http://intermediate.example.com/", NEW_URL);
+        assertEquals(NEW_URL, cache.resolve(OLD_URL));
+    }
+
+    @Test
+    public void survivesRedirectLoops() {
+        final RedirectCache cache = new RedirectCache(60000);
+        cache.put(OLD_URL, NEW_URL);
+        cache.put(NEW_URL, OLD_URL);
+        cache.put(OLD_URL, OLD_URL);
+        cache.resolve(OLD_URL);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void expiresRedirects() throws Exception {
+        final RedirectCache cache = new RedirectCache(20);
+        cache.put(OLD_URL, NEW_URL);
+        Thread.sleep(50);
+        assertEquals(OLD_URL, cache.resolve(OLD_URL));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsRedirects() {
+        final RedirectCache cache = new RedirectCache(60000);
+        cache.put(OLD_URL, NEW_URL);
+        cache.evict(OLD_URL);
+        assertEquals(OLD_URL, cache.resolve(OLD_URL));
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderCircuitOpenException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesTransientFailures() {
+        final RetryPolicy policy = RetryPolicy.defaults();
+        assertTrue(policy.isRetryable(new PushSenderHttpException(503)));
+        assertTrue(policy.isRetryable(new PushSenderHttpException(429)));
+        assertFalse(policy.isRetryable(new PushSenderHttpException(401)));
+        assertTrue(policy.isRetryable(new PushSenderException("refused", new ConnectException())));
+        assertTrue(policy.isRetryable(new PushSenderException("unknown", new UnknownHostException())));
+        assertFalse(policy.isRetryable(new PushSenderException("The site contains an infinite redirect loop!")));
+    }
+
+    @Test
+    public void doesNotRetryFailuresOnceSentByDefault() {
+        final RetryPolicy policy = RetryPolicy.defaults();
+        // the server may have accepted the message
+        assertFalse(policy.isRetryable(new PushSenderException("timeout", new SocketTimeoutException("Read timed out"))));
+        assertFalse(policy.isRetryable(new PushSenderException("reset", new IOException("Connection reset"))));
+        assertFalse(policy.isRetryable(new PushSenderHttpException(502)));
+        assertFalse(policy.isRetryable(new PushSenderHttpException(504)));
+    }
+
+    @Test
+    public void customRetryableFailures() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(2)
+                .retryOnStatusCodes(500)
+                .retryOn(IllegalStateException.class)
+                .build();
+        assertTrue(policy.isRetryable(new PushSenderHttpException(500)));
+        assertFalse(policy.isRetryable(new PushSenderHttpException(503)));
+        assertTrue(policy.isRetryable(new PushSenderException("failed", new IllegalStateException())));
+        assertFalse(policy.isRetryable(new PushSenderException("failed", new IOException())));
+    }
+
+    @Test
+    public void neverRetriesOpenCircuit() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(3)
+                .retryOn(PushSenderException.class)
+                .build();
+        assertFalse(policy.isRetryable(new PushSenderCircuitOpenException("open")));
+        assertEquals(-1, policy.getRetryDelay(1, new PushSenderCircuitOpenException("open"), 0));
+    }
+
+    @Test
+    public void backsOffExponentially() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(10)
+                .backoff(100, 1000)
+                .jitter(0)
+                .build();
+        final PushSenderHttpException failure = new PushSenderHttpException(503);
+        assertEquals(100, policy.getRetryDelay(1, failure, 0));
+        assertEquals(200, policy.getRetryDelay(2, failure, 0));
+        assertEquals(400, policy.getRetryDelay(3, failure, 0));
+        assertEquals(1000, policy.getRetryDelay(5, failure, 0));
+        assertEquals(1000, policy.getRetryDelay(9, failure, 0));
+    }
+
+    @Test
+    public void honorsRetryAfter() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(3)
+                .backoff(100, 100)
+                .jitter(0)
+                .deadline(5000)
+                .build();
+        assertEquals(2000, policy.getRetryDelay(1, new PushSenderHttpException(503, 2000), 0));
+        assertEquals(100, policy.getRetryDelay(1, new PushSenderHttpException(503, 10), 0));
+        assertEquals(-1, policy.getRetryDelay(1, new PushSenderHttpException(429, 6000), 0));
+        assertEquals(-1, policy.getRetryDelay(1, new PushSenderHttpException(429, Long.MAX_VALUE), 10));
+    }
+
+    @Test
+    public void capsRetryAfterWithoutDeadline() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(3)
+                .backoff(100, 100)
+                .jitter(0)
+                .maxRetryAfter(1000)
+                .build();
+        assertEquals(1000, policy.getRetryDelay(1, new PushSenderHttpException(503, 3600000), 0));
+        assertEquals(500, policy.getRetryDelay(1, new PushSenderHttpException(503, 500), 0));
+        assertEquals(60000, RetryPolicy.defaults().getRetryDelay(1, new PushSenderHttpException(429, Long.MAX_VALUE), 0));
+    }
+
+    @Test
+    public void jittersBackoff() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(10)
+                .backoff(1000, 1000)
+                .jitter(0.5)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getRetryDelay(1, new PushSenderHttpException(503), 0);
+            assertTrue(delay > 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void stopsAfterMaxAttemptsOrDeadline() {
+        final RetryPolicy policy = RetryPolicy.withMaxAttempts(3)
+                .backoff(100, 100)
+                .jitter(0)
+                .deadline(1000)
+                .build();
+        final PushSenderHttpException failure = new PushSenderHttpException(503);
+        assertEquals(100, policy.getRetryDelay(2, failure, 0));
+        assertEquals(-1, policy.getRetryDelay(3, failure, 0));
+        assertEquals(-1, policy.getRetryDelay(1, failure, 950));
+    }
+}
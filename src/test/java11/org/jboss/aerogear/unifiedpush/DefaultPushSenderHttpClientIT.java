@@ -0,0 +1,276 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.jboss.aerogear.unifiedpush.ca.TrustStoreManagerService;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderException;
+import org.jboss.aerogear.unifiedpush.exception.PushSenderHttpException;
+import org.jboss.aerogear.unifiedpush.message.UnifiedMessage;
+import org.jboss.aerogear.unifiedpush.model.TrustStoreConfig;
+import org.jboss.aerogear.unifiedpush.transport.ConnectionMode;
+import org.jboss.aerogear.unifiedpush.utils.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends messages through the {@code java.net.http.HttpClient} based transport of the multi-release jar to a
+ * {@link StubPushServer}.
+ */
+public class DefaultPushSenderHttpClientIT {
+
+    private static final Logger logger = Logger.getLogger(DefaultPushSenderHttpClientIT.class.getName());
+
+    private static final UnifiedMessage MESSAGE = UnifiedMessage.withMessage()
+            .alert("Hello from Java Sender API!")
+            .criteria().aliases("mike", "john")
+            .build();
+
+    private StubPushServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = StubPushServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sendsMessagesAndBatches() throws Exception {
+        final List<UnifiedMessage> batch = Arrays.asList(MESSAGE, MESSAGE);
+        try (DefaultPushSender pushSender = builder(server).build()) {
+            pushSender.send(MESSAGE);
+            assertEquals(202, pushSender.sendAsync(MESSAGE).get().getStatusCode());
+            pushSender.send(batch, null);
+            assertEquals(202, pushSender.sendAsync(batch).get().getStatusCode());
+            assertTrue(server.getLastPayload().startsWith("["));
+        }
+        assertEquals(2, server.getAcceptedMessages());
+        assertEquals(2, server.getAcceptedBatches());
+    }
+
+    @Test
+    public void streamsBatches() throws Exception {
+        final List<UnifiedMessage> batch = Arrays.asList(MESSAGE, MESSAGE, MESSAGE);
+        final String expected = "[" + MESSAGE.getObject().toJsonString() + "," + MESSAGE.getObject().toJsonString()
+                + "," + MESSAGE.getObject().toJsonString() + "]";
+        for (ConnectionMode connectionMode : Arrays.asList(ConnectionMode.NON_BLOCKING, ConnectionMode.HTTP2)) {
+            server.reset();
+            try (DefaultPushSender pushSender = builder(server).connectionMode(connectionMode).build()) {
+                pushSender.send(batch, null);
+            }
+            assertEquals(connectionMode + " streams the batch", 1, server.getChunkedRequests());
+            assertEquals(expected, server.getLastPayload());
+        }
+    }
+
+    @Test
+    public void streamsCompressedBatches() throws Exception {
+        final List<UnifiedMessage> batch = Arrays.asList(MESSAGE, MESSAGE);
+        try (DefaultPushSender pushSender = builder(server).compressionThreshold(1).build()) {
+            pushSender.send(batch, null);
+        }
+        assertEquals(1, server.getChunkedRequests());
+        assertEquals(1, server.getCompressedRequests());
+        assertEquals("[" + MESSAGE.getObject().toJsonString() + "," + MESSAGE.getObject().toJsonString() + "]",
+                server.getLastPayload());
+    }
+
+    @Test
+    public void reportsResponseToStreamedBatch() throws Exception {
+        server.failNext(401, 1);
+        try (DefaultPushSender pushSender = builder(server).build()) {
+            pushSender.send(Arrays.asList(MESSAGE, MESSAGE), null);
+            fail("the credentials should be rejected");
+        } catch (PushSenderHttpException e) {
+            assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void retriesInjectedErrors() throws Exception {
+        server.failNext(503, 2);
+        server.setRetryAfter(0);
+        try (DefaultPushSender pushSender = builder(server)
+                .retryPolicy(RetryPolicy.withMaxAttempts(3).backoff(1, 10).build())
+                .build()) {
+            assertEquals(202, pushSender.sendAsync(MESSAGE).get().getStatusCode());
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(1, server.getAcceptedMessages());
+    }
+
+    @Test
+    public void compressesLargePayloads() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).compressionThreshold(1).build()) {
+            pushSender.send(MESSAGE);
+        }
+        assertEquals(1, server.getCompressedRequests());
+        assertTrue(server.getLastPayload().contains("\"mike\""));
+    }
+
+    @Test
+    public void trustsReloadedTrustStore() throws Exception {
+        final File trustStoreFile = File.createTempFile("aerogear", ".truststore");
+        try (StubPushServer secureServer = StubPushServer.startSecure()) {
+            final TrustStoreConfig serverTrustStore = secureServer.getTrustStore();
+            // doesn't trust the server yet
+            final KeyStore emptyTrustStore = KeyStore.getInstance("jks");
+            emptyTrustStore.load(null, null);
+            try (OutputStream out = new FileOutputStream(trustStoreFile)) {
+                emptyTrustStore.store(out, serverTrustStore.getTrustStorePassword().toCharArray());
+            }
+
+            try (DefaultPushSender pushSender = builder(secureServer)
+                    .customTrustStore(trustStoreFile.getPath(), "jks", serverTrustStore.getTrustStorePassword())
+                    .build()) {
+                try {
+                    pushSender.send(MESSAGE);
+                    fail("the server certificate should not be trusted");
+                } catch (PushSenderException e) {
+                    // expected
+                }
+
+                Files.copy(new File(serverTrustStore.getTrustStorePath()).toPath(), trustStoreFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                trustStoreFile.setLastModified(trustStoreFile.lastModified() + 5000);
+                TrustStoreManagerService.getInstance().reloadModifiedTrustStores();
+
+                pushSender.send(MESSAGE);
+            }
+            assertEquals(1, secureServer.getAcceptedMessages());
+        } finally {
+            TrustStoreManagerService.getInstance().clearSSLSocketFactories();
+            trustStoreFile.delete();
+        }
+    }
+
+    @Test
+    public void sendsOverTlsInHttp2Mode() throws Exception {
+        try (StubPushServer secureServer = StubPushServer.startSecure()) {
+            final TrustStoreConfig trustStore = secureServer.getTrustStore();
+            try (DefaultPushSender pushSender = builder(secureServer)
+                    .connectionMode(ConnectionMode.HTTP2)
+                    .customTrustStore(trustStore.getTrustStorePath(), trustStore.getTrustStoreType(),
+                            trustStore.getTrustStorePassword())
+                    .build()) {
+                final List<CompletableFuture<PushResult>> results = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    results.add(pushSender.sendAsync(MESSAGE));
+                }
+                for (CompletableFuture<PushResult> result : results) {
+                    assertEquals(202, result.get(10, TimeUnit.SECONDS).getStatusCode());
+                }
+            }
+            assertEquals(10, secureServer.getAcceptedMessages());
+            // HTTP/2 isn't offered by the server during the TLS handshake
+            assertEquals("HTTP/1.1", secureServer.getLastProtocol());
+        } finally {
+            TrustStoreManagerService.getInstance().clearSSLSocketFactories();
+        }
+    }
+
+    @Test
+    public void fallsBackToHttp11() throws Exception {
+        try (DefaultPushSender pushSender = builder(server).connectionMode(ConnectionMode.HTTP2).build()) {
+            pushSender.send(MESSAGE);
+            pushSender.send(Arrays.asList(MESSAGE, MESSAGE), null);
+        }
+        assertEquals(1, server.getAcceptedMessages());
+        assertEquals(1, server.getAcceptedBatches());
+        // the h2c upgrade is ignored by the server
+        assertTrue(server.getUpgradeRequests() > 0);
+        assertEquals("HTTP/1.1", server.getLastProtocol());
+    }
+
+    @Test
+    public void sustainsLoad() throws Exception {
+        server.setLatency(1, 5);
+        final SendLoad blockingLoad;
+        final SendLoad asyncLoad;
+        try (DefaultPushSender pushSender = builder(server).build()) {
+            blockingLoad = SendLoad.send(pushSender, MESSAGE, 8, 100);
+            asyncLoad = SendLoad.sendAsync(pushSender, MESSAGE, 8, 800);
+        }
+
+        logger.info("NON_BLOCKING send: " + blockingLoad + ", sendAsync: " + asyncLoad);
+        assertEquals(1600, server.getAcceptedMessages());
+        assertLatency(blockingLoad);
+        assertLatency(asyncLoad);
+    }
+
+    @Test
+    public void sustainsLoadInHttp2Mode() throws Exception {
+        server.setLatency(1, 5);
+        final SendLoad load;
+        try (DefaultPushSender pushSender = builder(server).connectionMode(ConnectionMode.HTTP2).build()) {
+            load = SendLoad.sendAsync(pushSender, MESSAGE, 8, 800);
+        }
+
+        logger.info("HTTP2 sendAsync: " + load);
+        assertEquals(800, server.getAcceptedMessages());
+        assertLatency(load);
+    }
+
+    @Test
+    public void rejectsBasicAuthenticationForProxyTunnels() throws Exception {
+        try (DefaultPushSender pushSender = DefaultPushSender.withRootServerURL("https://127.0.0.1:1/ag-push")
+                .pushApplicationId(StubPushServer.PUSH_APPLICATION_ID)
+                .masterSecret(StubPushServer.MASTER_SECRET)
+                .connectionMode(ConnectionMode.NON_BLOCKING)
+                .proxy("127.0.0.1", 1)
+                .proxyUser("aerogear")
+                .proxyPassword("secret")
+                .build()) {
+            pushSender.send(MESSAGE);
+            fail("Basic authentication for tunnels is disabled by default");
+        } catch (PushSenderException e) {
+            assertTrue(e.getMessage().contains("jdk.http.auth.tunneling.disabledSchemes"));
+        }
+    }
+
+    private static void assertLatency(SendLoad load) {
+        assertTrue("p99 latency of " + load.getLatency(0.99) + " ms",
+                load.getLatency(0.99) < SendLoad.MAX_P99_LATENCY);
+    }
+
+    private static DefaultPushSender.Builder builder(StubPushServer server) {
+        return DefaultPushSender.withRootServerURL(server.getRootServerURL())
+                .pushApplicationId(StubPushServer.PUSH_APPLICATION_ID)
+                .masterSecret(StubPushServer.MASTER_SECRET)
+                .connectionMode(ConnectionMode.NON_BLOCKING);
+    }
+}